@@ -26,7 +26,7 @@ disjunction_test : '<<' constant+ '>>' ;
 relational_test : relation? single_test ;
 relation : '<>' | '<' | '>' | '<=' | '>=' | '==' | '<=>' | '=';
 single_test : variable | constant ;
-variable : '<' sym_constant '>' ;
+variable : Variable ;
 constant : sym_constant | Int_constant | Float_constant | Print_string ;
 
 // Grammar for Action Side
@@ -37,15 +37,20 @@ Print_string : '|' ~[|]* '|' ;
 func_call : '(' func_name value* ')' ;
 func_name : sym_constant | '+' | '-' | '*' | '/' ;
 value : constant | func_call | variable ;
-attr_value_make : '^' variable_or_sym_constant ( '.' variable_or_sym_constant )* value_make ;
+attr_value_make : '^' variable_or_sym_constant ( '.' variable_or_sym_constant )* value_make+ ;
 variable_or_sym_constant : variable | sym_constant ;
 value_make : value pref_specifier* ;
-pref_specifier : ( unary_pref ','? ) | ( unary_or_binary_pref ','? ) | unary_or_binary_pref value ','? ;
+// The binary form comes first so that "= <x>" is read as one binary preference rather than "=" and a new value
+pref_specifier : ( unary_pref ','? ) | unary_or_binary_pref value ','? | ( unary_or_binary_pref ','? ) ;
 unary_pref : '+' | '-' | '!' | '~' | '@' ;
 unary_or_binary_pref : '>' | '=' | '<' | '&' ;
 
 sym_constant: Sym_constant | STATE ;
 
+// A variable is one token, so the parser does not need several tokens of lookahead to tell "<x>" from the
+// relation '<' followed by a constant. A relation applied to a variable needs a space: "< <x>".
+Variable : '<' [a-zA-Z] [a-zA-Z0-9-_*]* '>' ;
+
 // Types of constants
 STATE: 'state' ;
 Sym_constant : [a-zA-Z] [a-zA-Z0-9-_*]* ;
@@ -0,0 +1,18 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.List;
+
+/**
+ * One "(&lt;id&gt; ^attr value ...)" working memory change on the right hand side of a production
+ */
+class Action
+{
+    final String variable;
+    final List<AttributeMake> attributeMakes;
+
+    Action(String variable, List<AttributeMake> attributeMakes)
+    {
+        this.variable = variable;
+        this.attributeMakes = attributeMakes;
+    }
+}
@@ -0,0 +1,28 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.List;
+
+/**
+ * One "^attr.path value preferences" element of an action
+ */
+class AttributeMake
+{
+    final List<String> attributes;
+    final Value value;
+    final String preferences;
+
+    AttributeMake(List<String> attributes, Value value, String preferences)
+    {
+        this.attributes = attributes;
+        this.value = value;
+        this.preferences = preferences;
+    }
+
+    /**
+     * @return the attribute path joined by underscores
+     */
+    String path()
+    {
+        return String.join("_", attributes);
+    }
+}
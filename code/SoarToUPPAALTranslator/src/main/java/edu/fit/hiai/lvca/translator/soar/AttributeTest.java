@@ -0,0 +1,28 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.List;
+
+/**
+ * One "^attr.path value-test*" element of a condition
+ */
+class AttributeTest
+{
+    final boolean negated;
+    final List<String> attributes;
+    final List<ValueTest> values;
+
+    AttributeTest(boolean negated, List<String> attributes, List<ValueTest> values)
+    {
+        this.negated = negated;
+        this.attributes = attributes;
+        this.values = values;
+    }
+
+    /**
+     * @return the attribute path joined by underscores
+     */
+    String path()
+    {
+        return String.join("_", attributes);
+    }
+}
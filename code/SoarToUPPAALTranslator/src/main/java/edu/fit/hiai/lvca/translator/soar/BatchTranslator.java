@@ -0,0 +1,257 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Translate many Soar agents at once. Inputs are directories (searched recursively for .soar files), single files
+ * or globs; every input produces its own UPPAAL file under the output directory. Files are translated in parallel on
+ * a fork-join pool and a per-file summary of time and allocation is printed at the end.
+ */
+class BatchTranslator
+{
+    private static final String SOAR_EXTENSION = ".soar";
+
+    private final String[] inputs;
+    private final Path outputDirectory;
+    private final int threads;
+    private final Path cacheDirectory;
+
+    /**
+     * A Soar file to translate and the path, relative to the output directory, that its model is written to
+     */
+    private static class Job
+    {
+        final Path source;
+        final Path relativeOutput;
+
+        Job(Path source, Path relativeOutput)
+        {
+            this.source = source;
+            this.relativeOutput = relativeOutput;
+        }
+    }
+
+    private static class Result
+    {
+        final Job job;
+        final long nanos;
+        final long allocatedBytes;
+        final long outputBytes;
+        final Throwable error;
+
+        Result(Job job, long nanos, long allocatedBytes, long outputBytes, Throwable error)
+        {
+            this.job = job;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.outputBytes = outputBytes;
+            this.error = error;
+        }
+    }
+
+    /**
+     * @param cacheDirectory translation cache shared by all inputs, or null
+     */
+    BatchTranslator(String[] inputs, String outputDirectory, int threads, Path cacheDirectory)
+    {
+        this.inputs = inputs;
+        this.outputDirectory = Paths.get(outputDirectory);
+        this.threads = Math.max(1, threads);
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Translate all inputs and print the summary
+     *
+     * @return true if every file translated
+     * @throws IOException if an input cannot be listed
+     */
+    boolean run() throws IOException
+    {
+        List<Job> jobs = new LinkedList<>();
+
+        for (String input : inputs)
+        {
+            jobs.addAll(findJobs(input));
+        }
+
+        if (jobs.isEmpty())
+        {
+            System.err.println("No Soar files found in " + String.join(", ", inputs));
+            return false;
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Result> results;
+
+        try
+        {
+            List<ForkJoinTask<Result>> tasks = jobs
+                    .stream()
+                    .map(job -> ForkJoinTask.adapt(() -> translate(job)))
+                    .collect(Collectors.toList());
+
+            results = pool.submit(() -> ForkJoinTask.invokeAll(tasks)
+                    .stream()
+                    .map(ForkJoinTask::join)
+                    .collect(Collectors.toList()))
+                    .join();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        printSummary(results, System.nanoTime() - start);
+
+        return results.stream().allMatch(r -> r.error == null);
+    }
+
+    private List<Job> findJobs(String input) throws IOException
+    {
+        Path path = Paths.get(input);
+
+        if (Files.isRegularFile(path))
+        {
+            return Collections.singletonList(new Job(path, outputName(path.getFileName())));
+        }
+        else if (Files.isDirectory(path))
+        {
+            Path name = path.toAbsolutePath().normalize().getFileName();
+            return findJobs(path, p -> true, name == null ? Paths.get("") : name);
+        }
+        else
+        {
+            // Walk from the deepest directory that contains no glob characters
+            Path base = Paths.get("");
+            for (Path part : path)
+            {
+                if (part.toString().matches(".*[*?\\[{].*"))
+                {
+                    break;
+                }
+                base = base.resolve(part);
+            }
+
+            if (path.isAbsolute())
+            {
+                base = path.getRoot().resolve(base);
+            }
+
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+            return Files.isDirectory(base) ? findJobs(base, matcher::matches, Paths.get("")) : Collections.emptyList();
+        }
+    }
+
+    private List<Job> findJobs(Path base, PathMatcher matcher, Path outputPrefix) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(base))
+        {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(SOAR_EXTENSION))
+                    .filter(matcher::matches)
+                    .sorted()
+                    .map(p -> new Job(p, outputPrefix.resolve(outputName(base.relativize(p)))))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path outputName(Path soarFile)
+    {
+        String name = soarFile.getFileName().toString();
+
+        if (name.endsWith(SOAR_EXTENSION))
+        {
+            name = name.substring(0, name.length() - SOAR_EXTENSION.length());
+        }
+
+        Path parent = soarFile.getParent();
+        return parent == null ? Paths.get(name + ".xml") : parent.resolve(name + ".xml");
+    }
+
+    private Result translate(Job job)
+    {
+        long allocatedBefore = TranslationMetrics.threadAllocatedBytes();
+        long start = System.nanoTime();
+
+        try
+        {
+            Path output = outputDirectory.resolve(job.relativeOutput);
+            if (output.getParent() != null)
+            {
+                Files.createDirectories(output.getParent());
+            }
+
+            TranslationOptions options = new TranslationOptions();
+            options.cacheDirectory = cacheDirectory;
+            SoarTranslator.writeUPPAAL(job.source.toString(), output, options);
+
+            return new Result(job, System.nanoTime() - start, allocatedSince(allocatedBefore), Files.size(output), null);
+        }
+        catch (Exception | StackOverflowError e)
+        {
+            return new Result(job, System.nanoTime() - start, allocatedSince(allocatedBefore), 0, e);
+        }
+    }
+
+    /**
+     * Bytes the current thread allocated since it had allocated the given number, or -1 if the JVM does not count them
+     */
+    private static long allocatedSince(long allocatedBefore)
+    {
+        long allocated = TranslationMetrics.threadAllocatedBytes();
+        return allocated < 0 || allocatedBefore < 0 ? -1 : allocated - allocatedBefore;
+    }
+
+    private void printSummary(List<Result> results, long wallNanos)
+    {
+        System.out.println(String.format("%-8s %10s %12s %10s  %s", "status", "time (ms)", "alloc (MB)", "out (KB)", "file"));
+
+        for (Result result : results)
+        {
+            String status = result.error == null ? "ok" : "FAILED";
+
+            System.out.println(String.format("%-8s %10.1f %12s %10.1f  %s",
+                    status,
+                    result.nanos / 1e6,
+                    result.allocatedBytes < 0 ? "n/a" : String.format("%.1f", result.allocatedBytes / (1024.0 * 1024.0)),
+                    result.outputBytes / 1024.0,
+                    result.job.source));
+
+            if (result.error != null)
+            {
+                System.out.println("         " + result.error);
+            }
+        }
+
+        long failed = results.stream().filter(r -> r.error != null).count();
+        double cpuMillis = results.stream().mapToLong(r -> r.nanos).sum() / 1e6;
+
+        System.out.println(String.format("%d files, %d failed, %d threads: %.1f ms wall, %.1f ms summed, peak heap %.1f MB",
+                results.size(),
+                failed,
+                threads,
+                wallNanos / 1e6,
+                cpuMillis,
+                peakHeapBytes() / (1024.0 * 1024.0)));
+    }
+
+    private static long peakHeapBytes()
+    {
+        return ManagementFactory.getMemoryPoolMXBeans()
+                .stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+}
@@ -0,0 +1,25 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.List;
+
+/**
+ * One parenthesised condition on the left hand side of a production. The first condition of every production is
+ * the state condition.
+ */
+class Condition
+{
+    final boolean state;
+    final boolean negated;
+    final String idText;
+    final ValueTest idTest;
+    final List<AttributeTest> attributeTests;
+
+    Condition(boolean state, boolean negated, String idText, ValueTest idTest, List<AttributeTest> attributeTests)
+    {
+        this.state = state;
+        this.negated = negated;
+        this.idText = idText;
+        this.idTest = idTest;
+        this.attributeTests = attributeTests;
+    }
+}
@@ -0,0 +1,119 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The productions that can affect the variables a set of queries refers to. A production is in the cone of influence
+ * if it assigns a variable that is in the cone, and then every variable it reads, in its guard or in the values it
+ * assigns, is in the cone as well. The other productions never change anything the queries can observe, so they can
+ * be left out of the model.
+ */
+class ConeOfInfluence
+{
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern COMMENT = Pattern.compile("//[^\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+
+    private final List<Set<String>> reads = new ArrayList<>();
+    private final Map<String, List<Integer>> writers = new HashMap<>();
+    private final Set<String> variables = new HashSet<>();
+    private final BitSet kept = new BitSet();
+    private final Deque<String> pending = new ArrayDeque<>();
+
+    /**
+     * Every identifier in an UPPAAL query file, outside comments. Those that are not variable or template names, such
+     * as the A and E of path quantifiers, are harmless.
+     */
+    static Set<String> readQueryNames(Path queryFile) throws IOException
+    {
+        String queries = new String(Files.readAllBytes(queryFile), StandardCharsets.UTF_8);
+        Matcher identifiers = IDENTIFIER.matcher(COMMENT.matcher(queries).replaceAll(" "));
+        Set<String> names = new HashSet<>();
+
+        while (identifiers.find())
+        {
+            names.add(identifiers.group());
+        }
+        return names;
+    }
+
+    /**
+     * Add the next production
+     *
+     * @param reads names in the production's guard and in the values it assigns
+     * @param writes variables the production assigns
+     */
+    void addProduction(Set<String> reads, Set<String> writes)
+    {
+        int production = this.reads.size();
+        this.reads.add(reads);
+
+        for (String variable : writes)
+        {
+            writers.computeIfAbsent(variable, v -> new ArrayList<>()).add(production);
+        }
+    }
+
+    /**
+     * Put a variable, and everything that can affect it, in the cone
+     */
+    void addVariable(String variable)
+    {
+        pending.add(variable);
+        propagate();
+    }
+
+    /**
+     * Put a production, and everything that can affect its guard or assignments, in the cone
+     *
+     * @param production index of the production in the order they were added
+     */
+    void addProduction(int production)
+    {
+        keep(production);
+        propagate();
+    }
+
+    /**
+     * @return whether the production at this index is in the cone
+     */
+    boolean contains(int production)
+    {
+        return kept.get(production);
+    }
+
+    /**
+     * @return every name read by the productions in the cone, and every variable added to it
+     */
+    Set<String> getVariables()
+    {
+        return variables;
+    }
+
+    private void keep(int production)
+    {
+        if (!kept.get(production))
+        {
+            kept.set(production);
+            pending.addAll(reads.get(production));
+        }
+    }
+
+    private void propagate()
+    {
+        while (!pending.isEmpty())
+        {
+            String variable = pending.poll();
+
+            if (variables.add(variable))
+            {
+                writers.getOrDefault(variable, Collections.emptyList()).forEach(this::keep);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.*;
+
+/**
+ * The productions that can never fire. Every variable starts as nil or false and only changes through the
+ * assignments of productions, so the values it can take are its initial value and the values the productions that
+ * can fire assign to it. Starting with no production able to fire, a production whose guard could hold on those
+ * values can fire, which adds the values it assigns, until nothing changes. A production that is left can never fire
+ * and translates to a process that never moves.
+ *
+ * Each term of a guard is judged on its own, so a production is only found dead when one of its terms can never
+ * hold. Input link attributes are written by the environment rather than by productions, so they can take any value,
+ * as can anything assigned arithmetic and any name that is neither a variable nor a constant.
+ */
+class DeadProductions
+{
+    private final Map<String, Integer> constants;
+    private final Set<String> variables = new HashSet<>();
+
+    /**
+     * Values each variable can take; a variable missing here can take any value
+     */
+    private final Map<String, Set<Integer>> values = new HashMap<>();
+
+    private final List<Expression.Conjunction> guards = new ArrayList<>();
+    private final List<List<Expression.Assignment>> assignments = new ArrayList<>();
+    private final BitSet live = new BitSet();
+
+    /**
+     * @param constants value of each symbolic constant, including nil, true and false
+     */
+    DeadProductions(Map<String, Integer> constants)
+    {
+        this.constants = constants;
+    }
+
+    /**
+     * Add a state variable, which starts as nil or false, unless it is on the input link
+     */
+    void addVariable(String variable)
+    {
+        variables.add(variable);
+
+        if (!ValueDomains.isInputLink(variable))
+        {
+            values.put(variable, new HashSet<>(Collections.singleton(0)));
+        }
+    }
+
+    /**
+     * Add the next production
+     */
+    void addProduction(Expression.Conjunction guard, List<Expression.Assignment> assignments)
+    {
+        guards.add(guard);
+        this.assignments.add(assignments);
+    }
+
+    /**
+     * Find the productions that can fire
+     */
+    void compute()
+    {
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+
+            for (int production = 0; production < guards.size(); production++)
+            {
+                if (!live.get(production) && canHold(guards.get(production)))
+                {
+                    live.set(production);
+                    changed = true;
+                }
+
+                // Assigned again every round, since a variable copied from another gains that one's new values
+                if (live.get(production))
+                {
+                    for (Expression.Assignment assignment : assignments.get(production))
+                    {
+                        changed |= assign(assignment);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the production at this index can never fire
+     */
+    boolean isDead(int production)
+    {
+        return !live.get(production);
+    }
+
+    /**
+     * @return whether the values of the assigned variable grew
+     */
+    private boolean assign(Expression.Assignment assignment)
+    {
+        Set<Integer> assigned = values.get(assignment.variable.name);
+
+        if (assigned == null)
+        {
+            return false;
+        }
+
+        Set<Integer> value = valuesOf(assignment.value);
+
+        if (value == null)
+        {
+            values.remove(assignment.variable.name);
+            return true;
+        }
+        return assigned.addAll(value);
+    }
+
+    /**
+     * @return the values the expression can take, or null if it can take any value
+     */
+    private Set<Integer> valuesOf(Expression expression)
+    {
+        if (expression instanceof Expression.Name)
+        {
+            String name = ((Expression.Name) expression).name;
+
+            if (variables.contains(name))
+            {
+                return values.get(name);
+            }
+            return constants.containsKey(name) ? Collections.singleton(constants.get(name)) : null;
+        }
+        else if (expression instanceof Expression.Literal)
+        {
+            try
+            {
+                return Collections.singleton(Integer.valueOf(((Expression.Literal) expression).text));
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean canHold(Expression.Conjunction guard)
+    {
+        return guard.terms.stream().allMatch(this::canHold);
+    }
+
+    private boolean canHold(Expression term)
+    {
+        if (term instanceof Expression.Name)
+        {
+            Set<Integer> value = valuesOf(term);
+            return value == null || value.stream().anyMatch(v -> v != 0);
+        }
+        else if (term instanceof Expression.Negation && ((Expression.Negation) term).operand instanceof Expression.Name)
+        {
+            Set<Integer> value = valuesOf(((Expression.Negation) term).operand);
+            return value == null || value.contains(0);
+        }
+        else if (term instanceof Expression.Relation)
+        {
+            Expression.Relation relation = (Expression.Relation) term;
+            Set<Integer> left = valuesOf(relation.left);
+            Set<Integer> right = valuesOf(relation.right);
+            return left == null || right == null || canHold(left, relation.operator, right);
+        }
+        return true;
+    }
+
+    private static boolean canHold(Set<Integer> left, String operator, Set<Integer> right)
+    {
+        switch (operator)
+        {
+            case "==":
+                return left.stream().anyMatch(right::contains);
+            case "!=":
+                return left.size() > 1 || right.size() > 1 || !left.equals(right);
+            case "<":
+                return Collections.min(left) < Collections.max(right);
+            case "<=":
+                return Collections.min(left) <= Collections.max(right);
+            case ">":
+                return Collections.max(left) > Collections.min(right);
+            case ">=":
+                return Collections.max(left) >= Collections.min(right);
+            default:
+                return true;
+        }
+    }
+}
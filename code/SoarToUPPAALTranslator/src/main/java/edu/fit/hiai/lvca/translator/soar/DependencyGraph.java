@@ -0,0 +1,382 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Which working memory paths each production reads, in its conditions and in the values it assigns, and which it
+ * writes, as the UPPAAL variables they are translated to. A production depends on another if it reads a variable the
+ * other writes.
+ *
+ * The graph is split two ways. Strongly connected components are the productions that depend on each other in a
+ * cycle, listed so that every component comes after those it depends on. Independent components are the productions
+ * that share a written variable, directly or through other productions: nothing one component does can be seen by
+ * another, so each can be translated and verified as a model of its own.
+ */
+class DependencyGraph
+{
+    private final List<String> productions = new ArrayList<>();
+    private final List<String> templates = new ArrayList<>();
+    private final List<Set<String>> reads = new ArrayList<>();
+    private final List<Set<String>> writes = new ArrayList<>();
+    private final Map<String, List<Integer>> writers = new HashMap<>();
+    private final Set<String> variables;
+
+    /**
+     * @param variables the names that are variables; the other names productions read are constants
+     */
+    DependencyGraph(Set<String> variables)
+    {
+        this.variables = variables;
+    }
+
+    /**
+     * Add the next production
+     *
+     * @param template the name of the production's template
+     * @param reads names in the production's guard and in the values it assigns
+     * @param writes variables the production assigns
+     */
+    void addProduction(String production, String template, Set<String> reads, Set<String> writes)
+    {
+        int index = productions.size();
+        productions.add(production);
+        templates.add(template);
+        this.reads.add(reads);
+        this.writes.add(writes);
+
+        for (String variable : writes)
+        {
+            writers.computeIfAbsent(variable, v -> new ArrayList<>()).add(index);
+        }
+    }
+
+    int size()
+    {
+        return productions.size();
+    }
+
+    String getTemplate(int production)
+    {
+        return templates.get(production);
+    }
+
+    /**
+     * @return every name the production reads, constants included
+     */
+    Set<String> getReads(int production)
+    {
+        return reads.get(production);
+    }
+
+    Set<String> getWrites(int production)
+    {
+        return writes.get(production);
+    }
+
+    /**
+     * @return the productions that write a variable the given production reads
+     */
+    private Set<Integer> getDependencies(int production)
+    {
+        Set<Integer> dependencies = new TreeSet<>();
+
+        for (String variable : reads.get(production))
+        {
+            dependencies.addAll(writers.getOrDefault(variable, Collections.emptyList()));
+        }
+        return dependencies;
+    }
+
+    /**
+     * Tarjan's algorithm, without recursion so that long chains of productions do not overflow the stack
+     *
+     * @return the strongly connected components, each after every component it depends on
+     */
+    List<List<Integer>> getStronglyConnectedComponents()
+    {
+        int count = productions.size();
+        int[] index = new int[count];
+        int[] lowLink = new int[count];
+        boolean[] onStack = new boolean[count];
+        Arrays.fill(index, -1);
+
+        List<List<Integer>> dependencies = new ArrayList<>(count);
+        for (int production = 0; production < count; production++)
+        {
+            dependencies.add(new ArrayList<>(getDependencies(production)));
+        }
+
+        List<List<Integer>> components = new ArrayList<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        Deque<int[]> calls = new ArrayDeque<>();
+        int next = 0;
+
+        for (int root = 0; root < count; root++)
+        {
+            if (index[root] >= 0)
+            {
+                continue;
+            }
+
+            // Each call is a production and how many of its dependencies have been visited
+            calls.push(new int[]{root, 0});
+            index[root] = lowLink[root] = next++;
+            stack.push(root);
+            onStack[root] = true;
+
+            while (!calls.isEmpty())
+            {
+                int[] call = calls.peek();
+                int production = call[0];
+
+                if (call[1] < dependencies.get(production).size())
+                {
+                    int dependency = dependencies.get(production).get(call[1]++);
+
+                    if (index[dependency] < 0)
+                    {
+                        calls.push(new int[]{dependency, 0});
+                        index[dependency] = lowLink[dependency] = next++;
+                        stack.push(dependency);
+                        onStack[dependency] = true;
+                    }
+                    else if (onStack[dependency])
+                    {
+                        lowLink[production] = Math.min(lowLink[production], index[dependency]);
+                    }
+                    continue;
+                }
+
+                calls.pop();
+                if (!calls.isEmpty())
+                {
+                    int caller = calls.peek()[0];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[production]);
+                }
+
+                if (lowLink[production] == index[production])
+                {
+                    List<Integer> component = new ArrayList<>();
+                    int member;
+                    do
+                    {
+                        member = stack.pop();
+                        onStack[member] = false;
+                        component.add(member);
+                    }
+                    while (member != production);
+
+                    Collections.sort(component);
+                    components.add(component);
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @return the independent components, each in production order, ordered by their first production
+     */
+    List<List<Integer>> getIndependentComponents()
+    {
+        int[] parent = new int[productions.size()];
+        for (int production = 0; production < parent.length; production++)
+        {
+            parent[production] = production;
+        }
+
+        for (int production = 0; production < parent.length; production++)
+        {
+            for (int dependency : getDependencies(production))
+            {
+                union(parent, production, dependency);
+            }
+
+            // Productions that write the same variable overwrite each other's values
+            for (String variable : writes.get(production))
+            {
+                union(parent, production, writers.get(variable).get(0));
+            }
+        }
+
+        Map<Integer, List<Integer>> components = new LinkedHashMap<>();
+        for (int production = 0; production < parent.length; production++)
+        {
+            components.computeIfAbsent(find(parent, production), root -> new ArrayList<>()).add(production);
+        }
+        return new ArrayList<>(components.values());
+    }
+
+    private static int find(int[] parent, int production)
+    {
+        while (parent[production] != production)
+        {
+            parent[production] = parent[parent[production]];
+            production = parent[production];
+        }
+        return production;
+    }
+
+    private static void union(int[] parent, int a, int b)
+    {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+
+        // The lower index wins, so that roots are the first production of their component
+        if (rootA < rootB)
+        {
+            parent[rootB] = rootA;
+        }
+        else if (rootB < rootA)
+        {
+            parent[rootA] = rootB;
+        }
+    }
+
+    /**
+     * @return the variables the production reads
+     */
+    private List<String> getReadVariables(int production)
+    {
+        return reads.get(production).stream()
+                .filter(name -> variables.contains(name) || writers.containsKey(name))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return every variable some production reads or writes, in name order
+     */
+    private SortedSet<String> getUsedVariables()
+    {
+        SortedSet<String> used = new TreeSet<>(writers.keySet());
+        for (int production = 0; production < productions.size(); production++)
+        {
+            used.addAll(getReadVariables(production));
+        }
+        return used;
+    }
+
+    /**
+     * Write the graph for Graphviz: productions are boxes, grouped in a cluster for each strongly connected component
+     * with more than one production, variables are ellipses, and edges go from what is read to what writes it
+     */
+    void writeDot(Writer out) throws IOException
+    {
+        out.write("digraph dependencies {\n");
+        out.write("  rankdir=LR;\n");
+        out.write("  node [shape=ellipse];\n");
+
+        for (String variable : getUsedVariables())
+        {
+            out.write("  " + dotId("v:" + variable) + " [label=" + dotId(variable) + "];\n");
+        }
+
+        int cluster = 0;
+        for (List<Integer> component : getStronglyConnectedComponents())
+        {
+            String indent = "  ";
+
+            if (component.size() > 1)
+            {
+                out.write("  subgraph cluster_" + cluster++ + " {\n");
+                out.write("    style=dashed;\n");
+                indent = "    ";
+            }
+
+            for (int production : component)
+            {
+                out.write(indent + dotId("p:" + productions.get(production)) + " [shape=box, label=" + dotId(productions.get(production)) + "];\n");
+            }
+
+            if (component.size() > 1)
+            {
+                out.write("  }\n");
+            }
+        }
+
+        for (int production = 0; production < productions.size(); production++)
+        {
+            String node = dotId("p:" + productions.get(production));
+
+            for (String variable : getReadVariables(production))
+            {
+                out.write("  " + dotId("v:" + variable) + " -> " + node + ";\n");
+            }
+
+            for (String variable : new TreeSet<>(writes.get(production)))
+            {
+                out.write("  " + node + " -> " + dotId("v:" + variable) + ";\n");
+            }
+        }
+        out.write("}\n");
+        out.flush();
+    }
+
+    private static String dotId(String text)
+    {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Write the graph as JSON: each production with what it reads and writes and the index of its strongly connected
+     * and independent components, and the components as lists of production indices
+     */
+    void writeJson(Writer out) throws IOException
+    {
+        List<List<Integer>> stronglyConnected = getStronglyConnectedComponents();
+        List<List<Integer>> independent = getIndependentComponents();
+        int[] stronglyConnectedOf = componentOf(stronglyConnected);
+        int[] independentOf = componentOf(independent);
+
+        out.write("{\n");
+        out.write("  \"productions\": [");
+
+        String separator = "\n";
+        for (int production = 0; production < productions.size(); production++)
+        {
+            out.write(separator + "    {\"name\": " + VerificationRunner.quote(productions.get(production))
+                    + ", \"template\": " + VerificationRunner.quote(templates.get(production))
+                    + ", \"reads\": " + jsonStrings(getReadVariables(production))
+                    + ", \"writes\": " + jsonStrings(new TreeSet<>(writes.get(production)))
+                    + ", \"stronglyConnectedComponent\": " + stronglyConnectedOf[production]
+                    + ", \"independentComponent\": " + independentOf[production] + "}");
+            separator = ",\n";
+        }
+        out.write("\n  ],\n");
+        out.write("  \"variables\": " + jsonStrings(getUsedVariables()) + ",\n");
+        out.write("  \"stronglyConnectedComponents\": " + jsonLists(stronglyConnected) + ",\n");
+        out.write("  \"independentComponents\": " + jsonLists(independent) + "\n");
+        out.write("}\n");
+        out.flush();
+    }
+
+    private int[] componentOf(List<List<Integer>> components)
+    {
+        int[] component = new int[productions.size()];
+
+        for (int i = 0; i < components.size(); i++)
+        {
+            for (int production : components.get(i))
+            {
+                component[production] = i;
+            }
+        }
+        return component;
+    }
+
+    private static String jsonStrings(Collection<String> strings)
+    {
+        return strings.stream().map(VerificationRunner::quote).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    private static String jsonLists(List<List<Integer>> lists)
+    {
+        return lists.stream()
+                .map(list -> list.stream().map(String::valueOf).collect(Collectors.joining(", ", "[", "]")))
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+}
@@ -0,0 +1,240 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Typed UPPAAL guard and assignment expressions produced by the semantic visitor. toString() gives UPPAAL syntax.
+ */
+abstract class Expression
+{
+    /**
+     * Add the names of the variables and constants the expression refers to
+     */
+    abstract void addNames(Collection<String> names);
+
+    /**
+     * A global variable or symbolic constant
+     */
+    static final class Name extends Expression
+    {
+        final String name;
+
+        Name(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            names.add(name);
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Name && ((Name) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+    }
+
+    /**
+     * A numeric literal, kept as written in the Soar source
+     */
+    static final class Literal extends Expression
+    {
+        final String text;
+
+        Literal(String text)
+        {
+            this.text = text;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return text;
+        }
+    }
+
+    static final class Negation extends Expression
+    {
+        final Expression operand;
+
+        Negation(Expression operand)
+        {
+            this.operand = operand;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            operand.addNames(names);
+        }
+
+        @Override
+        public String toString()
+        {
+            return operand instanceof Name ? "!" + operand : "!(" + operand + ")";
+        }
+    }
+
+    /**
+     * A comparison such as "a == b" or "a > 5"
+     */
+    static final class Relation extends Expression
+    {
+        final Expression left;
+        final String operator;
+        final Expression right;
+
+        Relation(Expression left, String operator, Expression right)
+        {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            left.addNames(names);
+            right.addNames(names);
+        }
+
+        @Override
+        public String toString()
+        {
+            return left + " " + operator + " " + right;
+        }
+    }
+
+    /**
+     * A binary arithmetic function call: +, -, * or /
+     */
+    static final class Arithmetic extends Expression
+    {
+        final Expression left;
+        final String operator;
+        final Expression right;
+
+        Arithmetic(Expression left, String operator, Expression right)
+        {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            left.addNames(names);
+            right.addNames(names);
+        }
+
+        /**
+         * @return how tightly the operator binds: * and / before + and -
+         */
+        private static int precedence(String operator)
+        {
+            return operator.equals("*") || operator.equals("/") ? 2 : 1;
+        }
+
+        /**
+         * @param right whether the operand is on the right, where an operand of the same precedence also needs
+         * parentheses unless both operators are + or both are *, since "a - (b - c)" is not "a - b - c" and integer
+         * division makes "a * (b / c)" differ from "a * b / c"
+         */
+        private String operand(Expression operand, boolean right)
+        {
+            if (operand instanceof Arithmetic)
+            {
+                int inner = precedence(((Arithmetic) operand).operator);
+                int outer = precedence(operator);
+
+                boolean associative = operator.equals("+") || operator.equals("*") && ((Arithmetic) operand).operator.equals("*");
+
+                if (inner < outer || right && inner == outer && !associative)
+                {
+                    return "(" + operand + ")";
+                }
+            }
+            return operand.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return operand(left, false) + " " + operator + " " + operand(right, true);
+        }
+    }
+
+    /**
+     * The guard of a transition: all terms must hold. An empty conjunction is always true.
+     */
+    static final class Conjunction extends Expression
+    {
+        final List<Expression> terms;
+
+        Conjunction(List<Expression> terms)
+        {
+            this.terms = Collections.unmodifiableList(terms);
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            terms.forEach(term -> term.addNames(names));
+        }
+
+        @Override
+        public String toString()
+        {
+            return terms.stream().map(Object::toString).collect(Collectors.joining(" && "));
+        }
+    }
+
+    static final class Assignment extends Expression
+    {
+        final Name variable;
+        final Expression value;
+
+        Assignment(Name variable, Expression value)
+        {
+            this.variable = variable;
+            this.value = value;
+        }
+
+        @Override
+        void addNames(Collection<String> names)
+        {
+            variable.addNames(names);
+            value.addNames(names);
+        }
+
+        @Override
+        public String toString()
+        {
+            return variable + " = " + value;
+        }
+    }
+}
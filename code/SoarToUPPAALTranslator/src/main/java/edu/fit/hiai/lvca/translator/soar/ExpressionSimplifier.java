@@ -0,0 +1,463 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.*;
+
+/**
+ * Simplify guards and assignments before they are written: fold arithmetic on integer literals, drop terms that always
+ * hold or that another term implies, keep only the tightest bound on each variable, and reduce a guard that can never
+ * hold to "false", so that its transition can be left out.
+ *
+ * Symbolic constants are only compared by name: different symbols compared with the same variable have different
+ * values, but their order depends on how the symbols are numbered. Nothing here depends on the numbering, so a
+ * simplified production can be cached on its own.
+ */
+class ExpressionSimplifier
+{
+    private static final Expression.Name FALSE = new Expression.Name("false");
+    private static final Expression.Conjunction UNSATISFIABLE = new Expression.Conjunction(Collections.singletonList(FALSE));
+    private static final Map<String, String> MIRRORED = new HashMap<>();
+
+    static
+    {
+        MIRRORED.put("==", "==");
+        MIRRORED.put("!=", "!=");
+        MIRRORED.put("<", ">");
+        MIRRORED.put("<=", ">=");
+        MIRRORED.put(">", "<");
+        MIRRORED.put(">=", "<=");
+    }
+
+    private final Set<String> constants;
+
+    /**
+     * @param constants names of the symbolic constants, as opposed to variables
+     */
+    ExpressionSimplifier(Set<String> constants)
+    {
+        this.constants = constants;
+    }
+
+    /**
+     * @return whether the guard was found never to hold
+     */
+    static boolean isUnsatisfiable(Expression.Conjunction guard)
+    {
+        return guard.terms.size() == 1 && FALSE.equals(guard.terms.get(0));
+    }
+
+    Expression.Assignment simplify(Expression.Assignment assignment)
+    {
+        return new Expression.Assignment(assignment.variable, fold(assignment.value));
+    }
+
+    /**
+     * @return an equivalent guard with no more terms, or "false" if it never holds
+     */
+    Expression.Conjunction simplify(Expression.Conjunction guard)
+    {
+        List<Expression> terms = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        for (Expression term : guard.terms)
+        {
+            Expression folded = fold(term);
+            Boolean value = evaluate(folded);
+
+            if (Boolean.FALSE.equals(value))
+            {
+                return UNSATISFIABLE;
+            }
+            else if (value == null && seen.add(folded.toString()))
+            {
+                terms.add(folded);
+            }
+        }
+
+        // A boolean and its negation
+        for (Expression term : terms)
+        {
+            if (term instanceof Expression.Negation && seen.contains(((Expression.Negation) term).operand.toString()))
+            {
+                return UNSATISFIABLE;
+            }
+        }
+
+        return subsumeBounds(terms) ? new Expression.Conjunction(terms) : UNSATISFIABLE;
+    }
+
+    /**
+     * Fold arithmetic whose operands are integer literals, and the identities x + 0, x - 0, x * 1 and x / 1
+     */
+    Expression fold(Expression expression)
+    {
+        if (expression instanceof Expression.Arithmetic)
+        {
+            Expression.Arithmetic arithmetic = (Expression.Arithmetic) expression;
+            Expression left = fold(arithmetic.left);
+            Expression right = fold(arithmetic.right);
+            Integer leftValue = integerOf(left);
+            Integer rightValue = integerOf(right);
+
+            if (leftValue != null && rightValue != null)
+            {
+                Long value = calculate(leftValue, arithmetic.operator, rightValue);
+
+                if (value != null && value >= ReachabilityChecker.INT_MIN && value <= ReachabilityChecker.INT_MAX)
+                {
+                    return new Expression.Literal(value.toString());
+                }
+            }
+            else if (rightValue != null && isIdentity(arithmetic.operator, rightValue))
+            {
+                return left;
+            }
+            else if (leftValue != null && leftValue == 0 && arithmetic.operator.equals("+")
+                    || leftValue != null && leftValue == 1 && arithmetic.operator.equals("*"))
+            {
+                return right;
+            }
+            return left == arithmetic.left && right == arithmetic.right ? arithmetic : new Expression.Arithmetic(left, arithmetic.operator, right);
+        }
+        else if (expression instanceof Expression.Relation)
+        {
+            Expression.Relation relation = (Expression.Relation) expression;
+            Expression left = fold(relation.left);
+            Expression right = fold(relation.right);
+            return left == relation.left && right == relation.right ? relation : new Expression.Relation(left, relation.operator, right);
+        }
+        return expression;
+    }
+
+    private static boolean isIdentity(String operator, int right)
+    {
+        return right == 0 && (operator.equals("+") || operator.equals("-")) || right == 1 && (operator.equals("*") || operator.equals("/"));
+    }
+
+    private static Long calculate(long left, String operator, long right)
+    {
+        switch (operator)
+        {
+            case "+":
+                return left + right;
+            case "-":
+                return left - right;
+            case "*":
+                return left * right;
+            case "/":
+                return right == 0 ? null : left / right;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return whether the term always holds, never holds, or null if that depends on the state
+     */
+    private Boolean evaluate(Expression term)
+    {
+        if (term instanceof Expression.Name)
+        {
+            String name = ((Expression.Name) term).name;
+            return name.equals("true") ? Boolean.TRUE : name.equals("false") ? Boolean.FALSE : null;
+        }
+        else if (term instanceof Expression.Negation)
+        {
+            Boolean operand = evaluate(((Expression.Negation) term).operand);
+            return operand == null ? null : !operand;
+        }
+        else if (!(term instanceof Expression.Relation))
+        {
+            return null;
+        }
+
+        Expression.Relation relation = (Expression.Relation) term;
+        String operator = relation.operator;
+
+        // A variable compared with itself
+        if (relation.left instanceof Expression.Name && relation.left.equals(relation.right) && !isConstant(relation.left))
+        {
+            return operator.equals("==") || operator.equals("<=") || operator.equals(">=");
+        }
+
+        Integer left = integerOf(relation.left);
+        Integer right = integerOf(relation.right);
+
+        if (left != null && right != null)
+        {
+            return compare(left, operator, right);
+        }
+
+        // Different symbols have different values, but not a known order
+        if (isConstantOperand(relation.left) && isConstantOperand(relation.right) && (operator.equals("==") || operator.equals("!=")))
+        {
+            if (isSame(relation.left, relation.right))
+            {
+                return operator.equals("==");
+            }
+            else if (isDistinct(relation.left, relation.right))
+            {
+                return operator.equals("!=");
+            }
+        }
+        return null;
+    }
+
+    private static boolean compare(int left, String operator, int right)
+    {
+        switch (operator)
+        {
+            case "==":
+                return left == right;
+            case "!=":
+                return left != right;
+            case "<":
+                return left < right;
+            case "<=":
+                return left <= right;
+            case ">":
+                return left > right;
+            default:
+                return left >= right;
+        }
+    }
+
+    /**
+     * The bounds, equalities and disequalities of one variable against integers and symbols, with the index of the
+     * term that gives each
+     */
+    private static class Bounds
+    {
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        int lowTerm = -1;
+        int highTerm = -1;
+        Expression equal;
+        int equalTerm = -1;
+        final Map<Integer, Expression> notEqual = new HashMap<>();
+    }
+
+    /**
+     * Keep the tightest lower and upper bound on each variable, and drop what an equality implies. Terms that are
+     * dropped are removed from the list; a pair of bounds that leaves one value becomes an equality.
+     *
+     * @return false if the terms contradict each other
+     */
+    private boolean subsumeBounds(List<Expression> terms)
+    {
+        Map<Expression, Bounds> boundsPerVariable = new LinkedHashMap<>();
+        Set<Integer> dropped = new HashSet<>();
+        Map<Integer, Expression> replaced = new HashMap<>();
+
+        for (int i = 0; i < terms.size(); i++)
+        {
+            if (!(terms.get(i) instanceof Expression.Relation))
+            {
+                continue;
+            }
+
+            Expression.Relation relation = (Expression.Relation) terms.get(i);
+            Expression variable = relation.left;
+            Expression constant = relation.right;
+            String operator = relation.operator;
+
+            if (isConstantOperand(variable))
+            {
+                variable = relation.right;
+                constant = relation.left;
+                operator = MIRRORED.get(operator);
+            }
+
+            if (!(variable instanceof Expression.Name) || isConstant(variable) || !isConstantOperand(constant) || operator == null)
+            {
+                continue;
+            }
+
+            Bounds bounds = boundsPerVariable.computeIfAbsent(variable, v -> new Bounds());
+            Integer value = integerOf(constant);
+
+            switch (operator)
+            {
+                case "==":
+                    if (bounds.equal == null)
+                    {
+                        bounds.equal = constant;
+                        bounds.equalTerm = i;
+                    }
+                    else if (isDistinct(bounds.equal, constant))
+                    {
+                        return false;
+                    }
+                    break;
+                case "!=":
+                    bounds.notEqual.put(i, constant);
+                    break;
+                default:
+                    if (value == null)
+                    {
+                        // Ordered against a symbol, whose value is not known here
+                        break;
+                    }
+                    else if (operator.startsWith(">"))
+                    {
+                        long low = operator.equals(">") ? value + 1L : value;
+                        if (bounds.lowTerm >= 0)
+                        {
+                            dropped.add(low > bounds.low ? bounds.lowTerm : i);
+                        }
+                        if (bounds.lowTerm < 0 || low > bounds.low)
+                        {
+                            bounds.low = low;
+                            bounds.lowTerm = i;
+                        }
+                    }
+                    else
+                    {
+                        long high = operator.equals("<") ? value - 1L : value;
+                        if (bounds.highTerm >= 0)
+                        {
+                            dropped.add(high < bounds.high ? bounds.highTerm : i);
+                        }
+                        if (bounds.highTerm < 0 || high < bounds.high)
+                        {
+                            bounds.high = high;
+                            bounds.highTerm = i;
+                        }
+                    }
+            }
+        }
+
+        for (Map.Entry<Expression, Bounds> entry : boundsPerVariable.entrySet())
+        {
+            Bounds bounds = entry.getValue();
+
+            if (bounds.low > bounds.high)
+            {
+                return false;
+            }
+
+            Integer equal = bounds.equal == null ? null : integerOf(bounds.equal);
+
+            if (bounds.equal == null && bounds.lowTerm >= 0 && bounds.low == bounds.high)
+            {
+                // x >= 3 && x <= 3
+                replaced.put(bounds.lowTerm, new Expression.Relation(entry.getKey(), "==", new Expression.Literal(Long.toString(bounds.low))));
+                dropped.add(bounds.highTerm);
+                equal = (int) bounds.low;
+            }
+            else if (equal != null)
+            {
+                if (equal < bounds.low || equal > bounds.high)
+                {
+                    return false;
+                }
+                dropped.add(bounds.lowTerm);
+                dropped.add(bounds.highTerm);
+            }
+
+            for (Map.Entry<Integer, Expression> notEqual : bounds.notEqual.entrySet())
+            {
+                Integer value = integerOf(notEqual.getValue());
+
+                if (bounds.equal != null && isSame(bounds.equal, notEqual.getValue()) || equal != null && equal.equals(value))
+                {
+                    return false;
+                }
+                else if (bounds.equal != null && isDistinct(bounds.equal, notEqual.getValue())
+                        || value != null && (value < bounds.low || value > bounds.high))
+                {
+                    dropped.add(notEqual.getKey());
+                }
+            }
+        }
+
+        List<Expression> simplified = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++)
+        {
+            if (!dropped.contains(i))
+            {
+                simplified.add(replaced.getOrDefault(i, terms.get(i)));
+            }
+        }
+        terms.clear();
+        terms.addAll(simplified);
+        return true;
+    }
+
+    /**
+     * @return whether two constants are known to have different values. Symbols are numbered from 1, so they differ
+     * from nil, but whether a symbol equals some other integer is not known here.
+     */
+    private boolean isDistinct(Expression first, Expression second)
+    {
+        Integer firstValue = integerOf(first);
+        Integer secondValue = integerOf(second);
+
+        if (firstValue != null && secondValue != null)
+        {
+            return !firstValue.equals(secondValue);
+        }
+        else if (isSymbol(first) && isSymbol(second))
+        {
+            return !first.equals(second);
+        }
+        return isSymbol(first) && Integer.valueOf(0).equals(secondValue) || isSymbol(second) && Integer.valueOf(0).equals(firstValue);
+    }
+
+    /**
+     * @return whether two constants are known to have the same value
+     */
+    private boolean isSame(Expression first, Expression second)
+    {
+        Integer firstValue = integerOf(first);
+        return firstValue != null ? firstValue.equals(integerOf(second)) : isSymbol(first) && first.equals(second);
+    }
+
+    private boolean isConstant(Expression expression)
+    {
+        return expression instanceof Expression.Name && constants.contains(((Expression.Name) expression).name);
+    }
+
+    private boolean isConstantOperand(Expression expression)
+    {
+        return integerOf(expression) != null || isConstant(expression);
+    }
+
+    /**
+     * @return whether the expression is a symbolic constant other than nil, whose value is only known as different
+     * from those of other symbols
+     */
+    private boolean isSymbol(Expression expression)
+    {
+        return isConstant(expression) && integerOf(expression) == null;
+    }
+
+    /**
+     * @return the value of an integer literal or of nil, true or false, or null
+     */
+    private static Integer integerOf(Expression expression)
+    {
+        if (expression instanceof Expression.Literal)
+        {
+            try
+            {
+                return Integer.valueOf(((Expression.Literal) expression).text);
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+        else if (expression instanceof Expression.Name)
+        {
+            switch (((Expression.Name) expression).name)
+            {
+                case "nil":
+                case "false":
+                    return 0;
+                case "true":
+                    return 1;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Time spent lexing and parsing a Soar agent, and bytes allocated doing it, whether the fast SLL pass was enough, and
+ * how large the shared prediction caches have grown. Times of an agent in several files are summed over the files,
+ * which are parsed in parallel. The DFA caches are shared by every lexer and parser in the JVM, so their sizes include
+ * everything parsed before.
+ */
+class ParseStatistics
+{
+    int files = 1;
+    final Set<Path> sources = new LinkedHashSet<>();
+    int tokens;
+    long lexNanos;
+    long sllNanos;
+    long llNanos;
+    boolean fellBackToLL;
+    long parseNanos;
+    long lexAllocatedBytes;
+    long parseAllocatedBytes;
+    int lexerDfaStates;
+    int parserDfaStates;
+    int parserDecisions;
+
+    void recordLexerCache(Lexer lexer)
+    {
+        lexerDfaStates = countStates(lexer.getInterpreter().decisionToDFA);
+    }
+
+    void recordParserCache(Parser parser)
+    {
+        parserDfaStates = countStates(parser.getInterpreter().decisionToDFA);
+        parserDecisions = parser.getInterpreter().decisionToDFA.length;
+    }
+
+    /**
+     * Add the times and token count of another part of the same agent. Cache sizes are the larger of the two, since
+     * the caches are shared.
+     */
+    void add(ParseStatistics other)
+    {
+        tokens += other.tokens;
+        lexNanos += other.lexNanos;
+        sllNanos += other.sllNanos;
+        llNanos += other.llNanos;
+        fellBackToLL |= other.fellBackToLL;
+        parseNanos += other.parseNanos;
+        lexAllocatedBytes = addBytes(lexAllocatedBytes, other.lexAllocatedBytes);
+        parseAllocatedBytes = addBytes(parseAllocatedBytes, other.parseAllocatedBytes);
+        lexerDfaStates = Math.max(lexerDfaStates, other.lexerDfaStates);
+        parserDfaStates = Math.max(parserDfaStates, other.parserDfaStates);
+        parserDecisions = Math.max(parserDecisions, other.parserDecisions);
+    }
+
+    /**
+     * @return the sum, or -1 if either is not known
+     */
+    private static long addBytes(long first, long second)
+    {
+        return first < 0 || second < 0 ? -1 : first + second;
+    }
+
+    private static int countStates(DFA[] dfas)
+    {
+        int states = 0;
+        for (DFA dfa : dfas)
+        {
+            states += dfa.states.size();
+        }
+        return states;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d files, %d tokens: lex %.1f ms, SLL parse %.1f ms%s; DFA cache: lexer %d states, parser %d states over %d decisions",
+                files,
+                tokens,
+                lexNanos / 1e6,
+                sllNanos / 1e6,
+                fellBackToLL ? String.format(" (failed), LL parse %.1f ms", llNanos / 1e6) : "",
+                lexerDfaStates,
+                parserDfaStates,
+                parserDecisions);
+    }
+}
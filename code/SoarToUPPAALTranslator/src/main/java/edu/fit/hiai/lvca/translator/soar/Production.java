@@ -0,0 +1,34 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.List;
+
+/**
+ * Typed form of a single Soar production. Built once from the parse tree and shared by symbol collection and
+ * UPPAAL emission.
+ */
+class Production
+{
+    /**
+     * Between the tokens of the source, so that different token sequences never give the same source
+     */
+    static final char TOKEN_SEPARATOR = '\0';
+
+    final String name;
+
+    /**
+     * The production's tokens as written, without whitespace or comments, separated by TOKEN_SEPARATOR
+     */
+    final String source;
+    final boolean halts;
+    final List<Condition> conditions;
+    final List<Action> actions;
+
+    Production(String name, String source, List<Condition> conditions, List<Action> actions)
+    {
+        this.name = name;
+        this.source = source;
+        this.halts = source.contains("(" + TOKEN_SEPARATOR + "halt" + TOKEN_SEPARATOR + ")");
+        this.conditions = conditions;
+        this.actions = actions;
+    }
+}
@@ -0,0 +1,221 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import edu.fit.hiai.lvca.antlr4.SoarParser;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Convert a Soar parse tree into the typed production form used by the translator passes
+ */
+class ProductionBuilder
+{
+    private ProductionBuilder()
+    {
+    }
+
+    static List<Production> build(SoarParser.SoarContext ctx)
+    {
+        return ctx.soar_production()
+                .stream()
+                .map(ProductionBuilder::production)
+                .collect(Collectors.toList());
+    }
+
+    static Production production(SoarParser.Soar_productionContext ctx)
+    {
+        List<Condition> conditions = new LinkedList<>();
+
+        SoarParser.State_imp_condContext stateCtx = ctx.condition_side().state_imp_cond();
+        SoarParser.Id_testContext stateIdCtx = stateCtx.id_test();
+
+        conditions.add(new Condition(true,
+                false,
+                stateIdCtx == null ? null : stateIdCtx.getText(),
+                stateIdCtx == null ? null : test(stateIdCtx.test(), false),
+                attributeTests(stateCtx.attr_value_tests())));
+
+        ctx.condition_side().cond().forEach(c -> addConditions(c, false, conditions));
+
+        List<Action> actions = ctx.action_side().action()
+                .stream()
+                .map(ProductionBuilder::action)
+                .collect(Collectors.toList());
+
+        return new Production(ctx.sym_constant().getText(), text(ctx), conditions, actions);
+    }
+
+    /**
+     * Like getText(), which copies the text of every subtree into its parent and so is quadratic in the depth of the
+     * tree, but with Production.TOKEN_SEPARATOR between the tokens
+     */
+    private static String text(ParseTree tree)
+    {
+        StringBuilder text = new StringBuilder();
+        appendText(tree, text);
+        return text.toString();
+    }
+
+    private static void appendText(ParseTree tree, StringBuilder text)
+    {
+        if (tree instanceof TerminalNode)
+        {
+            if (text.length() > 0)
+            {
+                text.append(Production.TOKEN_SEPARATOR);
+            }
+            text.append(tree.getText());
+        }
+        else
+        {
+            for (int i = 0; i < tree.getChildCount(); i++)
+            {
+                appendText(tree.getChild(i), text);
+            }
+        }
+    }
+
+    /**
+     * Flatten a condition, including conjunctive blocks "{ ... }", into the given list
+     *
+     * @param ctx
+     * @param negated true if an enclosing condition is negated
+     * @param conditions
+     */
+    private static void addConditions(SoarParser.CondContext ctx, boolean negated, List<Condition> conditions)
+    {
+        boolean isNegated = negated || ctx.getChildCount() > 1;
+        SoarParser.Positive_condContext positiveCtx = ctx.positive_cond();
+
+        if (positiveCtx.conds_for_one_id() != null)
+        {
+            SoarParser.Conds_for_one_idContext idCtx = positiveCtx.conds_for_one_id();
+            conditions.add(new Condition(false,
+                    isNegated,
+                    idCtx.id_test().getText(),
+                    test(idCtx.id_test().test(), false),
+                    attributeTests(idCtx.attr_value_tests())));
+        }
+        else
+        {
+            positiveCtx.cond().forEach(c -> addConditions(c, isNegated, conditions));
+        }
+    }
+
+    private static List<AttributeTest> attributeTests(List<SoarParser.Attr_value_testsContext> ctxs)
+    {
+        return ctxs.stream().map(ProductionBuilder::attributeTest).collect(Collectors.toList());
+    }
+
+    private static AttributeTest attributeTest(SoarParser.Attr_value_testsContext ctx)
+    {
+        List<String> attributes = ctx.attr_test()
+                .stream()
+                .map(RuleContext::getText)
+                .collect(Collectors.toList());
+
+        List<ValueTest> values = ctx.value_test()
+                .stream()
+                .map(vt -> vt.test() == null ? ValueTest.unsupported() : test(vt.test(), vt.getChildCount() > 1))
+                .collect(Collectors.toList());
+
+        return new AttributeTest(ctx.getStart().getText().equals("-"), attributes, values);
+    }
+
+    private static ValueTest test(SoarParser.TestContext ctx, boolean acceptable)
+    {
+        if (ctx.simple_test() == null || ctx.simple_test().relational_test() == null)
+        {
+            return ValueTest.unsupported();
+        }
+
+        SoarParser.Relational_testContext relationalCtx = ctx.simple_test().relational_test();
+        SoarParser.Single_testContext singleCtx = relationalCtx.single_test();
+        String relation = relationalCtx.relation() == null ? null : relationalCtx.relation().getText();
+
+        Value value = singleCtx.variable() != null ? Value.variable(singleCtx.variable().getText()) : constant(singleCtx.constant());
+
+        return new ValueTest(relation, value, acceptable);
+    }
+
+    private static Value constant(SoarParser.ConstantContext ctx)
+    {
+        Value.Kind kind;
+
+        if (ctx.sym_constant() != null)
+        {
+            kind = Value.Kind.SYMBOL;
+        }
+        else if (ctx.Int_constant() != null)
+        {
+            kind = Value.Kind.INTEGER;
+        }
+        else if (ctx.Float_constant() != null)
+        {
+            kind = Value.Kind.FLOAT;
+        }
+        else
+        {
+            kind = Value.Kind.STRING;
+        }
+        return Value.constant(kind, ctx.getText());
+    }
+
+    private static Action action(SoarParser.ActionContext ctx)
+    {
+        List<AttributeMake> attributeMakes = ctx.attr_value_make()
+                .stream()
+                .map(ProductionBuilder::attributeMake)
+                .collect(Collectors.toList());
+
+        return new Action(ctx.variable().getText(), attributeMakes);
+    }
+
+    private static AttributeMake attributeMake(SoarParser.Attr_value_makeContext ctx)
+    {
+        List<String> attributes = ctx.variable_or_sym_constant()
+                .stream()
+                .map(RuleContext::getText)
+                .collect(Collectors.toList());
+
+        // Only the first of several values made for the attribute is translated
+        SoarParser.Value_makeContext valueCtx = ctx.value_make(0);
+        String preferences = null;
+
+        if (valueCtx.pref_specifier().size() > 0)
+        {
+            preferences = valueCtx.pref_specifier()
+                    .stream()
+                    .map(RuleContext::getText)
+                    .collect(Collectors.joining());
+        }
+
+        return new AttributeMake(attributes, value(valueCtx.value()), preferences);
+    }
+
+    private static Value value(SoarParser.ValueContext ctx)
+    {
+        if (ctx.variable() != null)
+        {
+            return Value.variable(ctx.variable().getText());
+        }
+        else if (ctx.constant() != null)
+        {
+            return constant(ctx.constant());
+        }
+        else
+        {
+            SoarParser.Func_callContext funcCtx = ctx.func_call();
+            List<Value> arguments = funcCtx.value()
+                    .stream()
+                    .map(ProductionBuilder::value)
+                    .collect(Collectors.toList());
+
+            return Value.function(funcCtx.func_name().getText(), arguments);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Look for a state where a predicate holds by running walks of the translated network, for agents too big to check
+ * exhaustively, without keeping the states visited. Walks move as the network does: each step is a Run_Rule
+ * broadcast, which fires every production whose guard holds, followed by the scheduler's check. A successor is only
+ * picked at random where the network has more than one, so every trace reported is a run of the model.
+ *
+ * The network the translator writes never branches, so it has a single run, which is followed until the goal holds,
+ * the steps run out, or a state after a broadcast comes round again. Brent's cycle detection notices that with one
+ * saved state instead of all the states seen.
+ *
+ * A network that branches is walked on several threads, each with its own random numbers and state. A walk ends when
+ * the goal holds or after a number of steps, and the next walk starts from the initial state, until one of them finds
+ * the predicate holding or an assignment going out of range, or the steps run out.
+ *
+ * The trace of the first walk that finds something is reported as the Soar productions fired by each broadcast.
+ */
+class RandomWalkSimulator
+{
+    private final ReachabilityChecker network;
+    private final ReachabilityChecker.Value predicate;
+    private final String predicateText;
+    private final int threads;
+    private final long maxSteps;
+    private final int walkLength;
+    private final long seed;
+
+    private final LongAdder steps = new LongAdder();
+    private final AtomicLong walks = new AtomicLong();
+    private final AtomicReference<Result> found = new AtomicReference<>();
+
+    /**
+     * The outcome of a simulation
+     */
+    static class Result
+    {
+        String predicate;
+        long steps;
+        long walks;
+        long nanos;
+        long walk = -1;
+        List<String> trace;
+        String error;
+
+        @Override
+        public String toString()
+        {
+            StringBuilder text = new StringBuilder();
+            String summary = String.format("%d steps in %d walks, %.2f million steps/s", steps, walks, steps / (nanos / 1e3));
+
+            if (trace == null)
+            {
+                text.append(String.format("No walk reached %s (%s)", predicate, summary));
+            }
+            else
+            {
+                text.append(error == null
+                        ? String.format("%s holds after %d steps of walk %d (%s):", predicate, trace.size(), walk, summary)
+                        : String.format("%s after %d steps of walk %d (%s):", error, trace.size(), walk, summary));
+
+                for (int i = 0; i < trace.size(); i++)
+                {
+                    text.append(String.format("%n%6d  %s", i + 1, trace.get(i).isEmpty() ? "(no production fires)" : trace.get(i)));
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * @param predicate state predicate in the syntax of UPPAAL queries, without a quantifier
+     * @param maxSteps steps to take over all walks before giving up
+     * @param walkLength steps after which a walk of a network that branches starts over
+     */
+    RandomWalkSimulator(ReachabilityChecker network, String predicate, int threads, long maxSteps, int walkLength, long seed)
+    {
+        this.network = network;
+        this.predicate = network.compilePredicate(predicate);
+        this.predicateText = predicate;
+        this.threads = Math.max(1, threads);
+        this.maxSteps = maxSteps;
+        this.walkLength = walkLength;
+        this.seed = seed;
+    }
+
+    Result run() throws InterruptedException
+    {
+        long start = System.nanoTime();
+
+        if (!network.canBranch())
+        {
+            walks.incrementAndGet();
+            follow();
+            return getResult(start);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try
+        {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int worker = 0; worker < threads; worker++)
+            {
+                SplittableRandom random = new SplittableRandom(seed + worker);
+                workers.add(pool.submit(() -> walk(random)));
+            }
+
+            for (Future<?> worker : workers)
+            {
+                try
+                {
+                    worker.get();
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return getResult(start);
+    }
+
+    private Result getResult(long start)
+    {
+        Result result = found.get() == null ? new Result() : found.get();
+        result.predicate = predicateText;
+        result.steps = steps.sum();
+        result.walks = walks.get();
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Follow the only run of a network that never branches until it finds something, the steps run out, or it comes
+     * back to a state it has been in
+     */
+    private void follow()
+    {
+        int[] state = network.getInitialState();
+        boolean[] fires = new boolean[network.getProcessCount()];
+        int[] saved = null;
+        long sinceSaved = 0;
+        long power = 1;
+        long depth = 0;
+
+        try
+        {
+            if (predicate.of(state) != 0)
+            {
+                report(1, replay(0), null);
+                return;
+            }
+
+            while (depth < maxSteps && network.step(state, fires))
+            {
+                boolean round = network.isRound(state);
+
+                if (round)
+                {
+                    depth++;
+                }
+
+                if (predicate.of(state) != 0)
+                {
+                    report(1, replay(depth), null);
+                    return;
+                }
+
+                if (round)
+                {
+                    // The run repeats from here, so it never reaches anything it has not reached already
+                    if (Arrays.equals(state, saved))
+                    {
+                        break;
+                    }
+
+                    // Brent: save the state at steps that are powers of two apart; a cycle then comes back to one saved
+                    if (++sinceSaved == power)
+                    {
+                        saved = state.clone();
+                        sinceSaved = 0;
+                        power *= 2;
+                    }
+                }
+            }
+        }
+        catch (ArithmeticException e)
+        {
+            report(1, replay(depth), e.getMessage() + " in broadcast " + (depth + 1));
+        }
+        finally
+        {
+            steps.add(depth);
+        }
+    }
+
+    /**
+     * @return the productions fired by each of the first broadcasts of the run of a network that never branches
+     */
+    private List<String> replay(long broadcasts)
+    {
+        List<String> trace = new ArrayList<>();
+        int[] state = network.getInitialState();
+        boolean[] fires = new boolean[network.getProcessCount()];
+
+        while (trace.size() < broadcasts && network.step(state, fires))
+        {
+            if (network.isRound(state))
+            {
+                trace.add(getFired(state));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Run walks until one of them finds something, the steps run out, or a walk shows that every walk is the same
+     */
+    private void walk(SplittableRandom random)
+    {
+        int[] initial = network.getInitialState();
+        int[][] trace = new int[walkLength][];
+
+        while (found.get() == null && steps.sum() < maxSteps)
+        {
+            long walk = walks.incrementAndGet();
+            int[] state = initial;
+            boolean chose = false;
+            int depth = 0;
+
+            try
+            {
+                if (predicate.of(state) != 0)
+                {
+                    report(walk, getTrace(trace, 0), null);
+                    return;
+                }
+
+                while (depth < walkLength)
+                {
+                    List<int[]> successors = network.getSuccessors(state);
+
+                    if (successors.isEmpty())
+                    {
+                        break;
+                    }
+
+                    chose |= successors.size() > 1;
+                    state = successors.get(successors.size() == 1 ? 0 : random.nextInt(successors.size()));
+
+                    if (network.isRound(state))
+                    {
+                        trace[depth++] = state;
+                    }
+
+                    if (predicate.of(state) != 0)
+                    {
+                        report(walk, getTrace(trace, depth), null);
+                        return;
+                    }
+                }
+            }
+            catch (ArithmeticException e)
+            {
+                report(walk, getTrace(trace, depth), e.getMessage() + " in broadcast " + (depth + 1));
+                return;
+            }
+            finally
+            {
+                steps.add(depth);
+            }
+
+            // Every walk starts from the same state, so if this one made no choice, the others would repeat it
+            if (!chose)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param rounds the state after each broadcast of a walk
+     */
+    private List<String> getTrace(int[][] rounds, int length)
+    {
+        List<String> trace = new ArrayList<>(length);
+
+        for (int i = 0; i < length; i++)
+        {
+            trace.add(getFired(rounds[i]));
+        }
+        return trace;
+    }
+
+    /**
+     * @return the productions that fired in the broadcast that led to the state
+     */
+    private String getFired(int[] round)
+    {
+        List<String> fired = new ArrayList<>();
+
+        for (int process = 0; process < network.getProcessCount(); process++)
+        {
+            if (network.isRunning(process, round))
+            {
+                fired.add(network.getProduction(process));
+            }
+        }
+        return String.join(", ", fired);
+    }
+
+    private void report(long walk, List<String> trace, String error)
+    {
+        Result result = new Result();
+        result.walk = walk;
+        result.error = error;
+        result.trace = trace;
+        found.compareAndSet(null, result);
+    }
+}
@@ -0,0 +1,833 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Explicit-state reachability checking of the network the translator writes, without UPPAAL: int and bool globals,
+ * a Start/Run template per production, the goal production's second instance and the scheduler that drives them all
+ * with the Run_Rule broadcast. Supports "E<> p" and "A[] p", where p may use the variables and constants, locations
+ * such as production_0.Run or schd.Check, and deadlock.
+ *
+ * A state is packed into a few longs, each variable taking only the bits its range needs, and the search is a
+ * breadth-first search that expands each level in parallel into a lock-free set of visited states. On a Run_Rule
+ * broadcast every production's guard is evaluated on the state before the broadcast, in parallel for large agents,
+ * and the assignments of those that fire are then made in system order, as UPPAAL does.
+ */
+class ReachabilityChecker
+{
+    static final int INT_MIN = -32768;
+    static final int INT_MAX = 32767;
+
+    private static final int START = 0;
+    private static final int RUN = 1;
+    private static final int CHECK = 2;
+    private static final String SCHEDULER = "schd";
+    private static final int PARALLEL_GUARDS = 1024;
+
+    /**
+     * Only the scheduler moves on its own and a broadcast has a single outcome, so no state has more than one
+     * successor
+     */
+    private static final int MAX_SUCCESSORS = 1;
+
+    private static final Pattern TOKEN = Pattern.compile("\\s*(E<>|A\\[]|\\|\\||&&|==|!=|<=|>=|[-+*/%()!<>.]|\\d+|[A-Za-z_][A-Za-z0-9_]*)");
+
+    /**
+     * An expression compiled to read the unpacked slots of a state
+     */
+    interface Value
+    {
+        int of(int[] slots);
+    }
+
+    private static class Process
+    {
+        final String name;
+        final String production;
+        final Expression guard;
+        final List<Expression.Assignment> assignments;
+        Value compiledGuard;
+        int[] targets;
+        Value[] values;
+
+        Process(String name, String production, Expression guard, List<Expression.Assignment> assignments)
+        {
+            this.name = name;
+            this.production = production;
+            this.guard = guard;
+            this.assignments = assignments;
+        }
+    }
+
+    /**
+     * The outcome of checking one formula
+     */
+    static class Result
+    {
+        final String formula;
+        boolean satisfied;
+        int states;
+        int depth = -1;
+        long nanos;
+        String error;
+
+        Result(String formula)
+        {
+            this.formula = formula;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (error != null)
+            {
+                return String.format("%s: error: %s", formula, error);
+            }
+            return String.format("%s: %s (%d states%s, %.1f ms)",
+                    formula,
+                    satisfied ? "satisfied" : "not satisfied",
+                    states,
+                    depth >= 0 ? ", decided at depth " + depth : "",
+                    nanos / 1e6);
+        }
+    }
+
+    private final Map<String, Integer> constants;
+    private final List<String> slotNames = new ArrayList<>();
+    private final List<int[]> ranges = new ArrayList<>();
+    private final Map<String, Integer> variables = new HashMap<>();
+    private final List<Process> processes = new ArrayList<>();
+    private Expression goal;
+
+    private boolean prepared = false;
+    private int firstProcessSlot;
+    private int schedulerSlot;
+    private Value compiledGoal;
+    private int words;
+    private int[] wordOf;
+    private int[] shiftOf;
+    private long[] maskOf;
+
+    /**
+     * @param constants value of each symbolic constant
+     */
+    ReachabilityChecker(Map<String, Integer> constants)
+    {
+        this.constants = new HashMap<>(constants);
+        this.constants.put("true", 1);
+        this.constants.put("false", 0);
+    }
+
+    /**
+     * @param range lowest and highest value, or null for UPPAAL's default int range
+     */
+    void addInteger(String name, int[] range)
+    {
+        addVariable(name, range == null ? new int[]{INT_MIN, INT_MAX} : range);
+    }
+
+    void addBoolean(String name)
+    {
+        addVariable(name, new int[]{0, 1});
+    }
+
+    /**
+     * Add the next receiver of the Run_Rule broadcast, in system order
+     *
+     * @param production the name of the Soar production the process was translated from
+     */
+    void addProcess(String name, String production, Expression guard, List<Expression.Assignment> assignments)
+    {
+        processes.add(new Process(name, production, guard, assignments));
+    }
+
+    /**
+     * @param goal the goal production's conditions; the scheduler stops once they hold
+     */
+    void setGoal(Expression goal)
+    {
+        this.goal = goal;
+    }
+
+    /**
+     * Check a formula, searching with the given number of threads
+     */
+    Result check(String formula, int threads)
+    {
+        Result result = new Result(formula);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try
+        {
+            prepare();
+
+            Matcher quantifier = Pattern.compile("\\s*(E<>|A\\[])(.*)", Pattern.DOTALL).matcher(formula);
+            if (!quantifier.matches())
+            {
+                throw new IllegalArgumentException("Only E<> and A[] formulas are supported");
+            }
+
+            boolean exists = quantifier.group(1).equals("E<>");
+            Value property = new FormulaParser(quantifier.group(2)).parse();
+
+            // E<> p holds if a state where p holds is reachable; A[] p holds if no state where p fails is
+            Value target = exists ? property : slots -> property.of(slots) == 0 ? 1 : 0;
+            StateSet visited = new StateSet(words, 1024);
+
+            result.depth = pool.submit(() -> search(target, visited)).get();
+            result.satisfied = exists == (result.depth >= 0);
+            result.states = visited.size();
+        }
+        catch (IllegalArgumentException e)
+        {
+            result.error = e.getMessage();
+        }
+        catch (java.util.concurrent.ExecutionException e)
+        {
+            result.error = String.valueOf(e.getCause().getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            result.error = "interrupted";
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Compile a state predicate in the syntax of the formulas, without a quantifier
+     */
+    Value compilePredicate(String predicate)
+    {
+        prepare();
+        return new FormulaParser(predicate).parse();
+    }
+
+    /**
+     * @return the initial state, with every variable nil and every process at Start
+     */
+    int[] getInitialState()
+    {
+        prepare();
+        return new int[slotNames.size()];
+    }
+
+    int getProcessCount()
+    {
+        return processes.size();
+    }
+
+    String getProduction(int process)
+    {
+        return processes.get(process).production;
+    }
+
+    /**
+     * @return whether the production is at Run, having fired in the broadcast that led to the state
+     */
+    boolean isRunning(int process, int[] state)
+    {
+        return state[firstProcessSlot + process] == RUN;
+    }
+
+    /**
+     * @return whether the state is the one right after a Run_Rule broadcast, rather than after the scheduler's check
+     */
+    boolean isRound(int[] state)
+    {
+        return state[schedulerSlot] == RUN;
+    }
+
+    /**
+     * @return whether some state can have more than one successor, so that runs of the network can differ
+     */
+    boolean canBranch()
+    {
+        return MAX_SUCCESSORS > 1;
+    }
+
+    /**
+     * @return the states the network can move to from the given state, none once the goal holds or nothing can move
+     * @throws ArithmeticException if an assignment goes out of range
+     */
+    List<int[]> getSuccessors(int[] state)
+    {
+        prepare();
+        return successors(state);
+    }
+
+    /**
+     * @return the depth of the first state found where the target holds, or -1 if there is none
+     */
+    private int search(Value target, StateSet visited)
+    {
+        int[] initial = new int[slotNames.size()];
+        long[] packed = pack(initial);
+        visited.add(packed);
+
+        if (target.of(initial) != 0)
+        {
+            return 0;
+        }
+
+        List<long[]> frontier = Collections.singletonList(packed);
+        AtomicBoolean found = new AtomicBoolean(false);
+        int depth = 0;
+
+        while (!frontier.isEmpty())
+        {
+            depth++;
+            visited.ensureCapacity(visited.size() + frontier.size() * MAX_SUCCESSORS);
+
+            frontier = frontier
+                    .parallelStream()
+                    .flatMap(state -> found.get() ? Stream.empty() : expand(state, target, visited, found))
+                    .collect(Collectors.toList());
+
+            if (found.get())
+            {
+                return depth;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the successors of the state that were not visited before, noting if the target holds in one of them
+     */
+    private Stream<long[]> expand(long[] state, Value target, StateSet visited, AtomicBoolean found)
+    {
+        List<long[]> added = new ArrayList<>(MAX_SUCCESSORS);
+
+        for (int[] successor : successors(unpack(state)))
+        {
+            long[] packed = pack(successor);
+
+            if (visited.add(packed))
+            {
+                added.add(packed);
+                if (target.of(successor) != 0)
+                {
+                    found.set(true);
+                }
+            }
+        }
+        return added.stream();
+    }
+
+    private List<int[]> successors(int[] state)
+    {
+        int[] next = state.clone();
+        return step(next, new boolean[processes.size()]) ? Collections.singletonList(next) : Collections.emptyList();
+    }
+
+    /**
+     * Move the network on by its only transition, in place: the scheduler's check, or a Run_Rule broadcast. Only
+     * valid while no state has more than one successor, and once the state layout is known, as from
+     * getInitialState.
+     *
+     * @param fires where to note which productions fire, as long as the number of processes
+     * @return false, leaving the state as it was, if the network cannot move
+     * @throws ArithmeticException if an assignment goes out of range, leaving the state part way through the broadcast
+     */
+    boolean step(int[] state, boolean[] fires)
+    {
+        if (state[schedulerSlot] == RUN)
+        {
+            // The scheduler only starts another round while the goal has not been reached
+            if (compiledGoal.of(state) != 0)
+            {
+                return false;
+            }
+
+            state[schedulerSlot] = CHECK;
+            return true;
+        }
+
+        int count = processes.size();
+
+        if (count >= PARALLEL_GUARDS)
+        {
+            IntStream.range(0, count).parallel().forEach(i -> fires[i] = fires(i, state));
+        }
+        else
+        {
+            for (int i = 0; i < count; i++)
+            {
+                fires[i] = fires(i, state);
+            }
+        }
+
+        // Every guard has been read, so the assignments can go straight into the state, in system order
+        for (int i = 0; i < count; i++)
+        {
+            int slot = firstProcessSlot + i;
+
+            if (state[slot] == RUN)
+            {
+                state[slot] = START;
+            }
+            else if (fires[i])
+            {
+                Process process = processes.get(i);
+
+                for (int j = 0; j < process.targets.length; j++)
+                {
+                    assign(state, process.targets[j], process.values[j].of(state));
+                }
+                state[slot] = RUN;
+            }
+        }
+        state[schedulerSlot] = RUN;
+        return true;
+    }
+
+    private boolean fires(int process, int[] state)
+    {
+        return state[firstProcessSlot + process] == START && processes.get(process).compiledGuard.of(state) != 0;
+    }
+
+    private void assign(int[] state, int slot, int value)
+    {
+        int[] range = ranges.get(slot);
+
+        if (value < range[0] || value > range[1])
+        {
+            throw new ArithmeticException(String.format("%s = %d is outside [%d,%d]", slotNames.get(slot), value, range[0], range[1]));
+        }
+        state[slot] = value;
+    }
+
+    private void addVariable(String name, int[] range)
+    {
+        variables.put(name, slotNames.size());
+        slotNames.add(name);
+        ranges.add(range);
+    }
+
+    /**
+     * Add the location slots, compile the guards and assignments and lay out the packed state. Called once, before
+     * the first search.
+     */
+    private synchronized void prepare()
+    {
+        if (prepared)
+        {
+            return;
+        }
+
+        firstProcessSlot = slotNames.size();
+        for (Process process : processes)
+        {
+            slotNames.add(process.name);
+            ranges.add(new int[]{START, RUN});
+        }
+        schedulerSlot = slotNames.size();
+        slotNames.add(SCHEDULER);
+        ranges.add(new int[]{START, CHECK});
+
+        for (Process process : processes)
+        {
+            process.compiledGuard = compile(process.guard);
+            process.targets = new int[process.assignments.size()];
+            process.values = new Value[process.assignments.size()];
+
+            for (int j = 0; j < process.assignments.size(); j++)
+            {
+                Expression.Assignment assignment = process.assignments.get(j);
+                Integer slot = variables.get(assignment.variable.name);
+
+                if (slot == null)
+                {
+                    throw new IllegalArgumentException("Undeclared variable " + assignment.variable.name);
+                }
+                process.targets[j] = slot;
+                process.values[j] = compile(assignment.value);
+            }
+        }
+        compiledGoal = compile(goal);
+
+        int slots = slotNames.size();
+        wordOf = new int[slots];
+        shiftOf = new int[slots];
+        maskOf = new long[slots];
+        int word = 0;
+        int bit = 0;
+
+        for (int slot = 0; slot < slots; slot++)
+        {
+            int[] range = ranges.get(slot);
+            int width = 64 - Long.numberOfLeadingZeros((long) range[1] - range[0]);
+
+            // Fields do not straddle two words
+            if (bit + width > 64)
+            {
+                word++;
+                bit = 0;
+            }
+            wordOf[slot] = word;
+            shiftOf[slot] = bit;
+            maskOf[slot] = width == 0 ? 0 : -1L >>> (64 - width);
+            bit += width;
+        }
+        words = word + 1;
+        prepared = true;
+    }
+
+    private long[] pack(int[] state)
+    {
+        long[] packed = new long[words];
+
+        for (int slot = 0; slot < state.length; slot++)
+        {
+            packed[wordOf[slot]] |= ((long) state[slot] - ranges.get(slot)[0]) << shiftOf[slot];
+        }
+        return packed;
+    }
+
+    private int[] unpack(long[] packed)
+    {
+        int[] state = new int[wordOf.length];
+
+        for (int slot = 0; slot < state.length; slot++)
+        {
+            state[slot] = (int) ((packed[wordOf[slot]] >>> shiftOf[slot]) & maskOf[slot]) + ranges.get(slot)[0];
+        }
+        return state;
+    }
+
+    private Value compile(Expression expression)
+    {
+        if (expression instanceof Expression.Name)
+        {
+            return compileName(((Expression.Name) expression).name);
+        }
+        else if (expression instanceof Expression.Literal)
+        {
+            return constant(parseInteger(((Expression.Literal) expression).text));
+        }
+        else if (expression instanceof Expression.Negation)
+        {
+            Value operand = compile(((Expression.Negation) expression).operand);
+            return slots -> operand.of(slots) == 0 ? 1 : 0;
+        }
+        else if (expression instanceof Expression.Relation)
+        {
+            Expression.Relation relation = (Expression.Relation) expression;
+            return compare(compile(relation.left), relation.operator, compile(relation.right));
+        }
+        else if (expression instanceof Expression.Arithmetic)
+        {
+            Expression.Arithmetic arithmetic = (Expression.Arithmetic) expression;
+            return calculate(compile(arithmetic.left), arithmetic.operator, compile(arithmetic.right));
+        }
+        else if (expression instanceof Expression.Conjunction)
+        {
+            Value[] terms = ((Expression.Conjunction) expression).terms.stream().map(this::compile).toArray(Value[]::new);
+            return slots -> {
+                for (Value term : terms)
+                {
+                    if (term.of(slots) == 0)
+                    {
+                        return 0;
+                    }
+                }
+                return 1;
+            };
+        }
+        throw new IllegalArgumentException("Cannot evaluate " + expression);
+    }
+
+    private Value compileName(String name)
+    {
+        Integer slot = variables.get(name);
+
+        if (slot != null)
+        {
+            int index = slot;
+            return slots -> slots[index];
+        }
+
+        Integer value = constants.get(name);
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Undeclared name " + name);
+        }
+        return constant(value);
+    }
+
+    private static Value constant(int value)
+    {
+        return slots -> value;
+    }
+
+    private static int parseInteger(String text)
+    {
+        try
+        {
+            return Integer.parseInt(text);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Only integers are supported, not " + text);
+        }
+    }
+
+    private static Value compare(Value left, String operator, Value right)
+    {
+        switch (operator)
+        {
+            case "==":
+                return slots -> left.of(slots) == right.of(slots) ? 1 : 0;
+            case "!=":
+                return slots -> left.of(slots) != right.of(slots) ? 1 : 0;
+            case "<":
+                return slots -> left.of(slots) < right.of(slots) ? 1 : 0;
+            case "<=":
+                return slots -> left.of(slots) <= right.of(slots) ? 1 : 0;
+            case ">":
+                return slots -> left.of(slots) > right.of(slots) ? 1 : 0;
+            case ">=":
+                return slots -> left.of(slots) >= right.of(slots) ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Unsupported relation " + operator);
+        }
+    }
+
+    private static Value calculate(Value left, String operator, Value right)
+    {
+        switch (operator)
+        {
+            case "+":
+                return slots -> left.of(slots) + right.of(slots);
+            case "-":
+                return slots -> left.of(slots) - right.of(slots);
+            case "*":
+                return slots -> left.of(slots) * right.of(slots);
+            case "/":
+                return slots -> left.of(slots) / right.of(slots);
+            case "%":
+                return slots -> left.of(slots) % right.of(slots);
+            default:
+                throw new IllegalArgumentException("Unsupported operator " + operator);
+        }
+    }
+
+    /**
+     * Recursive descent parser for the state predicate of a formula, in UPPAAL's syntax: || or, && and, ! not, imply,
+     * comparisons, + - * / %, parentheses, integers, names, process.location, true, false and deadlock
+     */
+    private class FormulaParser
+    {
+        private final List<String> tokens = new ArrayList<>();
+        private int position = 0;
+
+        FormulaParser(String text)
+        {
+            Matcher matcher = TOKEN.matcher(text);
+            int end = 0;
+
+            while (matcher.lookingAt())
+            {
+                tokens.add(matcher.group(1));
+                end = matcher.end();
+                matcher.region(end, text.length());
+            }
+
+            if (!text.substring(end).trim().isEmpty())
+            {
+                throw new IllegalArgumentException("Unexpected \"" + text.substring(end).trim() + "\"");
+            }
+        }
+
+        Value parse()
+        {
+            Value value = implication();
+
+            if (position < tokens.size())
+            {
+                throw new IllegalArgumentException("Unexpected \"" + tokens.get(position) + "\"");
+            }
+            return value;
+        }
+
+        private Value implication()
+        {
+            Value left = or();
+
+            if (accept("imply"))
+            {
+                Value premise = left;
+                Value conclusion = implication();
+                return slots -> premise.of(slots) == 0 || conclusion.of(slots) != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private Value or()
+        {
+            Value left = and();
+
+            while (accept("||") || accept("or"))
+            {
+                Value first = left;
+                Value second = and();
+                left = slots -> first.of(slots) != 0 || second.of(slots) != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private Value and()
+        {
+            Value left = not();
+
+            while (accept("&&") || accept("and"))
+            {
+                Value first = left;
+                Value second = not();
+                left = slots -> first.of(slots) != 0 && second.of(slots) != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private Value not()
+        {
+            if (accept("!") || accept("not"))
+            {
+                Value operand = not();
+                return slots -> operand.of(slots) == 0 ? 1 : 0;
+            }
+            return comparison();
+        }
+
+        private Value comparison()
+        {
+            Value left = sum();
+
+            for (String operator : new String[]{"==", "!=", "<=", ">=", "<", ">"})
+            {
+                if (accept(operator))
+                {
+                    return compare(left, operator, sum());
+                }
+            }
+            return left;
+        }
+
+        private Value sum()
+        {
+            Value left = product();
+
+            while (peek("+") || peek("-"))
+            {
+                left = calculate(left, tokens.get(position++), product());
+            }
+            return left;
+        }
+
+        private Value product()
+        {
+            Value left = unary();
+
+            while (peek("*") || peek("/") || peek("%"))
+            {
+                left = calculate(left, tokens.get(position++), unary());
+            }
+            return left;
+        }
+
+        private Value unary()
+        {
+            if (accept("-"))
+            {
+                Value operand = unary();
+                return slots -> -operand.of(slots);
+            }
+            return primary();
+        }
+
+        private Value primary()
+        {
+            if (position >= tokens.size())
+            {
+                throw new IllegalArgumentException("Formula ends too early");
+            }
+
+            String token = tokens.get(position++);
+
+            if (token.equals("("))
+            {
+                Value value = implication();
+                expect(")");
+                return value;
+            }
+            else if (Character.isDigit(token.charAt(0)))
+            {
+                return constant(parseInteger(token));
+            }
+            else if (token.equals("deadlock"))
+            {
+                return slots -> successors(slots).isEmpty() ? 1 : 0;
+            }
+            else if (accept("."))
+            {
+                return location(token, tokens.get(position++));
+            }
+            else if (Character.isLetter(token.charAt(0)) || token.charAt(0) == '_')
+            {
+                return compileName(token);
+            }
+            throw new IllegalArgumentException("Unexpected \"" + token + "\"");
+        }
+
+        private Value location(String process, String location)
+        {
+            int slot = slotNames.indexOf(process);
+            List<String> locations = process.equals(SCHEDULER) ? Arrays.asList("Start", "Run", "Check") : Arrays.asList("Start", "Run");
+            int code = locations.indexOf(location);
+
+            if (slot < firstProcessSlot || code < 0)
+            {
+                throw new IllegalArgumentException("Unknown location " + process + "." + location);
+            }
+            return slots -> slots[slot] == code ? 1 : 0;
+        }
+
+        private boolean peek(String token)
+        {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private boolean accept(String token)
+        {
+            if (peek(token))
+            {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token)
+        {
+            if (!accept(token))
+            {
+                throw new IllegalArgumentException("Expected \"" + token + "\"");
+            }
+        }
+    }
+}
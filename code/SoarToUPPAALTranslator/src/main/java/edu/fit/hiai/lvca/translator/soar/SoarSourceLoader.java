@@ -0,0 +1,451 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import edu.fit.hiai.lvca.antlr4.SoarLexer;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Load a Soar agent that may be split over many files. Files are memory-mapped and read in place; top level
+ * "source", "pushd" and "popd" commands are followed the way Soar does, and every other command is ignored.
+ *
+ * Each run of productions between two source commands is a chunk. Chunks are lexed and parsed in parallel and their
+ * productions joined in the order Soar would load them. As in Soar, a production loaded again under the same name
+ * replaces the earlier one.
+ */
+class SoarSourceLoader
+{
+    /**
+     * Name under which Soar source given as text is loaded, in the directory its source commands start from
+     */
+    static final String TEXT_NAME = "input.soar";
+
+    /**
+     * One lexer per thread, given each chunk in turn. Its DFA cache is shared by every lexer in the JVM anyway, but
+     * creating a lexer also creates its ATN simulator and token factory.
+     */
+    private static final ThreadLocal<SoarLexer> LEXER = ThreadLocal.withInitial(() -> new SoarLexer(null));
+
+    private final Deque<Path> directories = new ArrayDeque<>();
+    private final Set<Path> loading = new HashSet<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Set<Path> loadedFiles = new LinkedHashSet<>();
+
+    /**
+     * Part of a file that holds productions, with the commands inside it blanked out
+     */
+    private static class Chunk
+    {
+        final Path file;
+        final CharSequence text;
+        final int from;
+        final int line;
+        final List<Integer> blanks = new ArrayList<>();
+        int to;
+        boolean hasProductions = false;
+
+        Chunk(Path file, CharSequence text, int from, int line)
+        {
+            this.file = file;
+            this.text = text;
+            this.from = from;
+            this.line = line;
+        }
+
+        SourceCharStream stream()
+        {
+            int[] blankRanges = blanks.stream().mapToInt(Integer::intValue).toArray();
+            return new SourceCharStream(text, from, to, blankRanges, file.toString());
+        }
+    }
+
+    private SoarSourceLoader()
+    {
+    }
+
+    /**
+     * @param soarSourceFile the agent's top file
+     * @param statistics filled in with the totals over all files and the files read, or null
+     * @return the agent's productions in load order
+     */
+    static List<Production> load(String soarSourceFile, ParseStatistics statistics) throws IOException
+    {
+        Path file = Paths.get(soarSourceFile).toAbsolutePath().normalize();
+        SoarSourceLoader loader = new SoarSourceLoader();
+
+        loader.directories.push(file.getParent());
+        loader.loadFile(file);
+        return loader.parseChunks(statistics);
+    }
+
+    /**
+     * Load Soar source given as text, as if it were a file named TEXT_NAME in the given directory
+     *
+     * @param directory where the source commands of the text start from
+     * @param statistics filled in with the totals over all files and the files read, or null
+     * @return the productions in load order
+     */
+    static List<Production> load(CharSequence text, Path directory, ParseStatistics statistics) throws IOException
+    {
+        Path file = directory.toAbsolutePath().normalize().resolve(TEXT_NAME);
+        SoarSourceLoader loader = new SoarSourceLoader();
+
+        loader.directories.push(file.getParent());
+        loader.loading.add(file);
+        loader.loadedFiles.add(file);
+        loader.loadText(file, text);
+        return loader.parseChunks(statistics);
+    }
+
+    /**
+     * Parse the chunks that hold productions in parallel and join their productions
+     */
+    private List<Production> parseChunks(ParseStatistics statistics)
+    {
+        List<Chunk> withProductions = chunks
+                .stream()
+                .filter(chunk -> chunk.hasProductions)
+                .collect(Collectors.toList());
+
+        List<ParseStatistics> chunkStatistics = new ArrayList<>();
+        for (int i = 0; i < withProductions.size(); i++)
+        {
+            chunkStatistics.add(statistics == null ? null : new ParseStatistics());
+        }
+
+        List<List<Production>> parsed = IntStream.range(0, withProductions.size())
+                .parallel()
+                .mapToObj(i -> parse(withProductions.get(i), chunkStatistics.get(i)))
+                .collect(Collectors.toList());
+
+        if (statistics != null)
+        {
+            statistics.files = loadedFiles.size();
+            statistics.sources.addAll(loadedFiles);
+            chunkStatistics.forEach(statistics::add);
+        }
+
+        // A production defined again replaces the earlier definition
+        Map<String, Production> productions = new LinkedHashMap<>();
+        for (List<Production> chunkProductions : parsed)
+        {
+            for (Production production : chunkProductions)
+            {
+                productions.remove(production.name);
+                productions.put(production.name, production);
+            }
+        }
+        return new ArrayList<>(productions.values());
+    }
+
+    private static List<Production> parse(Chunk chunk, ParseStatistics statistics)
+    {
+        long start = System.nanoTime();
+        long allocated = statistics == null ? -1 : TranslationMetrics.threadAllocatedBytes();
+
+        SoarLexer lexer = LEXER.get();
+        lexer.setInputStream(chunk.stream());
+        lexer.setLine(chunk.line);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+
+        // The tokens keep their own reference to the text
+        lexer.setInputStream(null);
+
+        if (statistics == null)
+        {
+            return SoarTranslator.parse(tokens, null);
+        }
+
+        long lexed = System.nanoTime();
+        long lexAllocated = TranslationMetrics.threadAllocatedBytes();
+        statistics.tokens = tokens.size();
+        statistics.lexNanos = lexed - start;
+        statistics.lexAllocatedBytes = allocated < 0 ? -1 : lexAllocated - allocated;
+        statistics.recordLexerCache(lexer);
+
+        List<Production> productions = SoarTranslator.parse(tokens, statistics);
+
+        statistics.parseNanos = System.nanoTime() - lexed;
+        statistics.parseAllocatedBytes = allocated < 0 ? -1 : TranslationMetrics.threadAllocatedBytes() - lexAllocated;
+        return productions;
+    }
+
+    private void loadFile(Path file) throws IOException
+    {
+        if (!loading.add(file))
+        {
+            throw new IOException("Soar file sources itself: " + file);
+        }
+        loadedFiles.add(file);
+        loadText(file, map(file));
+        loading.remove(file);
+    }
+
+    private void loadText(Path file, CharSequence text) throws IOException
+    {
+        int length = text.length();
+        int line = 1;
+        int i = 0;
+        Chunk chunk = new Chunk(file, text, 0, line);
+
+        while (i < length)
+        {
+            char c = text.charAt(i);
+
+            if (c == '\n')
+            {
+                line++;
+                i++;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                i++;
+            }
+            else if (c == '#')
+            {
+                i = endOfLine(text, i);
+            }
+            else if (startsProduction(text, i))
+            {
+                int end = endOfProduction(text, i);
+                line += countLines(text, i, end);
+                chunk.hasProductions = true;
+                i = end;
+            }
+            else
+            {
+                int end = endOfCommand(text, i);
+                List<String> words = words(text.subSequence(i, end).toString());
+                chunk.blanks.add(i);
+                chunk.blanks.add(end);
+                line += countLines(text, i, end);
+                i = end;
+
+                switch (words.get(0))
+                {
+                    case "source":
+                        chunk.to = i;
+                        chunks.add(chunk);
+                        source(argument(words));
+                        chunk = new Chunk(file, text, i, line);
+                        break;
+                    case "pushd":
+                        directories.push(directories.peek().resolve(argument(words)).normalize());
+                        break;
+                    case "popd":
+                        if (directories.size() > 1)
+                        {
+                            directories.pop();
+                        }
+                        break;
+                    default:
+                        // Settings such as learning, watch levels or RL parameters do not affect the model
+                }
+            }
+        }
+
+        chunk.to = length;
+        chunks.add(chunk);
+    }
+
+    private void source(String fileName) throws IOException
+    {
+        Path file = directories.peek().resolve(fileName).normalize();
+
+        // Relative paths inside the sourced file are resolved from its own directory, and a pushd it leaves unpopped
+        // does not outlive it
+        int depth = directories.size();
+        directories.push(file.getParent());
+        try
+        {
+            loadFile(file);
+        }
+        finally
+        {
+            while (directories.size() > depth)
+            {
+                directories.pop();
+            }
+        }
+    }
+
+    /**
+     * Map the file and read it in place if it is ASCII, which Soar files almost always are; otherwise decode it
+     */
+    private static CharSequence map(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (SourceCharStream.AsciiSequence.isAscii(bytes))
+            {
+                return new SourceCharStream.AsciiSequence(bytes);
+            }
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+    }
+
+    private static boolean startsProduction(CharSequence text, int i)
+    {
+        return i + 2 < text.length()
+                && (text.charAt(i) == 's' || text.charAt(i) == 'g')
+                && text.charAt(i + 1) == 'p'
+                && (Character.isWhitespace(text.charAt(i + 2)) || text.charAt(i + 2) == '{');
+    }
+
+    /**
+     * @return the index after the brace that closes the production starting at i
+     */
+    private static int endOfProduction(CharSequence text, int i)
+    {
+        int depth = 0;
+
+        while (i < text.length())
+        {
+            char c = text.charAt(i);
+
+            if (c == '|')
+            {
+                i = skipPast(text, i + 1, '|');
+                continue;
+            }
+            else if (c == '#')
+            {
+                i = endOfLine(text, i);
+                continue;
+            }
+            else if (c == '"' && startsWith(text, i, "\"\"\""))
+            {
+                i = skipPastDocumentation(text, i + 3);
+                continue;
+            }
+            else if (c == '{')
+            {
+                depth++;
+            }
+            else if (c == '}' && --depth == 0)
+            {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the command starting at i: the end of its line, or of the line on which its braces
+     * close
+     */
+    private static int endOfCommand(CharSequence text, int i)
+    {
+        int depth = 0;
+
+        while (i < text.length())
+        {
+            char c = text.charAt(i);
+
+            if (c == '{')
+            {
+                depth++;
+            }
+            else if (c == '}')
+            {
+                depth--;
+            }
+            else if (c == '\n' && depth <= 0)
+            {
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int endOfLine(CharSequence text, int i)
+    {
+        while (i < text.length() && text.charAt(i) != '\n')
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipPast(CharSequence text, int i, char end)
+    {
+        while (i < text.length() && text.charAt(i) != end)
+        {
+            i++;
+        }
+        return i + 1;
+    }
+
+    private static int skipPastDocumentation(CharSequence text, int i)
+    {
+        while (i < text.length() && !startsWith(text, i, "\"\"\""))
+        {
+            i++;
+        }
+        return i + 3;
+    }
+
+    private static boolean startsWith(CharSequence text, int i, String prefix)
+    {
+        if (i + prefix.length() > text.length())
+        {
+            return false;
+        }
+
+        for (int j = 0; j < prefix.length(); j++)
+        {
+            if (text.charAt(i + j) != prefix.charAt(j))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countLines(CharSequence text, int from, int to)
+    {
+        int lines = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (text.charAt(i) == '\n')
+            {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> words(String command)
+    {
+        return Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    /**
+     * The path given to source or pushd, without options or the quotes or braces around it
+     */
+    private static String argument(List<String> words) throws IOException
+    {
+        for (String word : words.subList(1, words.size()))
+        {
+            if (!word.startsWith("-"))
+            {
+                return word.replaceAll("^[\"{]|[\"}]$", "");
+            }
+        }
+        throw new IOException("Missing file name in \"" + String.join(" ", words) + "\"");
+    }
+}
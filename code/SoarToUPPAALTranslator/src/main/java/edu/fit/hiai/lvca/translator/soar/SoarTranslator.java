@@ -1,21 +1,30 @@
 package edu.fit.hiai.lvca.translator.soar;
 
-import edu.fit.hiai.lvca.antlr4.SoarLexer;
 import edu.fit.hiai.lvca.antlr4.SoarParser;
 import org.antlr.v4.gui.TestRig;
-import org.antlr.v4.runtime.ANTLRFileStream;
-import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.apache.commons.cli.*;
 
 import javax.swing.*;
-import java.io.File;
-import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by mstafford on 5/31/16.
@@ -25,14 +34,123 @@ public class SoarTranslator
     private static String soarSourceFile = null;
     private static String outputFile = null;
     private static boolean debugFlag = false;
+    private static String[] batchInputs = null;
+    private static int batchThreads = Runtime.getRuntime().availableProcessors();
+    private static Path cacheDirectory = null;
+    private static boolean parseStatisticsFlag = false;
+    private static boolean removeDeadFlag = false;
+    private static Path queryFile = null;
+    private static boolean singleProcessFlag = false;
+    private static Path symbolMapFile = null;
+    private static boolean watchFlag = false;
+    private static List<Path> verifyQueryFiles = null;
+    private static String verifier = "verifyta";
+    private static Path reportFile = null;
+    private static long verifyTimeoutSeconds = 0;
+    private static List<Path> checkQueryFiles = null;
+    private static String simulatePredicate = null;
+    private static long simulateSteps = 10_000_000;
+    private static int walkLength = 1000;
+    private static long simulateSeed = System.nanoTime();
+    private static Path statsFile = null;
+    private static Path graphFile = null;
+    private static Path componentsDirectory = null;
+
+    /**
+     * One parser per thread, given each token stream in turn; the DFA cache is shared by every parser in the JVM
+     */
+    private static final ThreadLocal<SoarParser> PARSER = ThreadLocal.withInitial(() -> new SoarParser(null));
 
     public static void main(String[] args) throws IOException
     {
         parseArgs(args);
 
-        String uppaalXML = getUPPAAL(soarSourceFile);
+        if (batchInputs != null)
+        {
+            boolean succeeded = new BatchTranslator(batchInputs, outputFile, batchThreads, cacheDirectory).run();
+            System.exit(succeeded ? 0 : 1);
+        }
+
+        TranslationOptions options = new TranslationOptions();
+        options.cacheDirectory = cacheDirectory;
+        options.statistics = parseStatisticsFlag ? new ParseStatistics() : null;
+        options.removeDeadProductions = removeDeadFlag;
+        options.deadProductions = removeDeadFlag ? new ArrayList<>() : null;
+        options.queryNames = queryFile == null ? null : ConeOfInfluence.readQueryNames(queryFile);
+        options.singleProcess = singleProcessFlag;
+        options.symbolMap = symbolMapFile;
+        options.metrics = statsFile == null ? null : new TranslationMetrics();
+
+        if (graphFile != null || componentsDirectory != null)
+        {
+            System.exit(writeDependencies(options) ? 0 : 1);
+        }
+
+        if (checkQueryFiles != null)
+        {
+            System.exit(check(options) ? 0 : 1);
+        }
+
+        if (simulatePredicate != null)
+        {
+            System.exit(simulate(options) ? 0 : 1);
+        }
+
+        if (verifyQueryFiles != null)
+        {
+            if (soarSourceFile != null)
+            {
+                writeUPPAAL(soarSourceFile, Paths.get(outputFile), options);
+                writeStatistics(options);
+            }
+            System.exit(verify() ? 0 : 1);
+        }
+
+        if (watchFlag)
+        {
+            try
+            {
+                new WatchTranslator(soarSourceFile, outputFile, options).run();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        writeUPPAAL(soarSourceFile, Paths.get(outputFile), options);
+
+        if (options.statistics != null)
+        {
+            System.out.println(options.statistics);
+        }
+
+        if (options.deadProductions != null)
+        {
+            printDeadProductions(options.deadProductions);
+        }
+        writeStatistics(options);
+    }
 
-        Files.write(Paths.get(outputFile), uppaalXML.getBytes());
+    private static void printDeadProductions(List<String> deadProductions)
+    {
+        System.out.println(String.format("%d productions can never fire and were left out", deadProductions.size()));
+        deadProductions.forEach(name -> System.out.println("  " + name));
+    }
+
+    /**
+     * Write the metrics of the translation as JSON, if --stats asked for them
+     */
+    private static void writeStatistics(TranslationOptions options) throws IOException
+    {
+        if (options.metrics != null)
+        {
+            try (Writer out = Files.newBufferedWriter(statsFile, StandardCharsets.UTF_8))
+            {
+                options.metrics.write(out);
+            }
+        }
     }
 
     private static void parseArgs(String[] args)
@@ -48,6 +166,72 @@ public class SoarTranslator
         Option debugOption = new Option("d", "debug", false, "Debug (Show Parse Tree)");
         options.addOption(debugOption);
 
+        Option batchOption = new Option("b", "batch", true, "Translate every Soar file in the given directories or globs; -o names the output directory");
+        batchOption.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(batchOption);
+
+        Option threadsOption = new Option("t", "threads", true, "Number of parallel translations in batch mode, of verifier processes with --verify, or of threads with --check, --simulate and --components (default: number of cores)");
+        options.addOption(threadsOption);
+
+        Option cacheOption = new Option("c", "cache", true, "Directory of translated productions to reuse between runs");
+        options.addOption(cacheOption);
+
+        Option parseStatisticsOption = new Option("p", "parse-stats", false, "Print lexing and parsing time and parser cache sizes");
+        options.addOption(parseStatisticsOption);
+
+        Option removeDeadOption = new Option("D", "remove-dead", false, "Leave out, and print, the productions that can never fire because no production writes what their conditions test");
+        options.addOption(removeDeadOption);
+
+        Option queryOption = new Option("q", "query", true, "UPPAAL query file; only translate the productions that can affect what its queries refer to");
+        options.addOption(queryOption);
+
+        Option singleProcessOption = new Option("s", "single-process", false, "Encode all productions in one template rather than one template each");
+        options.addOption(singleProcessOption);
+
+        Option symbolMapOption = new Option("m", "symbol-map", true, "Number each attribute's symbols from 1 and write the numbering to the given file");
+        options.addOption(symbolMapOption);
+
+        Option watchOption = new Option("w", "watch", false, "Keep running and translate again whenever the Soar files change");
+        options.addOption(watchOption);
+
+        Option verifyOption = new Option("V", "verify", true, "Check every property of the given query files against the -o model, translating -i first if given");
+        verifyOption.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(verifyOption);
+
+        Option verifierOption = new Option("e", "verifier", true, "Verifier executable for --verify (default: verifyta)");
+        options.addOption(verifierOption);
+
+        Option reportOption = new Option("r", "report", true, "File for the JSON report of --verify (default: standard output)");
+        options.addOption(reportOption);
+
+        Option timeoutOption = new Option("T", "timeout", true, "Seconds each property may run with --verify (default: no limit)");
+        options.addOption(timeoutOption);
+
+        Option statsOption = new Option("j", "stats", true, "Write the time and allocation of each translation phase and the size of the model as JSON to the given file");
+        options.addOption(statsOption);
+
+        Option checkOption = new Option("C", "check", true, "Check the E<> and A[] properties of the given query files against -i with the built-in checker");
+        checkOption.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(checkOption);
+
+        Option simulateOption = new Option("R", "simulate", true, "Run walks of the network -i translates to until the given predicate holds and print the productions each Run_Rule broadcast fired on the way");
+        options.addOption(simulateOption);
+
+        Option stepsOption = new Option("n", "steps", true, "Steps over all walks before --simulate gives up (default: 10000000)");
+        options.addOption(stepsOption);
+
+        Option walkLengthOption = new Option("L", "walk-length", true, "Steps after which a --simulate walk starts over, where the network can branch (default: 1000)");
+        options.addOption(walkLengthOption);
+
+        Option seedOption = new Option("S", "seed", true, "Random seed for --simulate");
+        options.addOption(seedOption);
+
+        Option graphOption = new Option("g", "graph", true, "Write which variables each production of -i reads and writes, as Graphviz DOT or, for a .json file, JSON");
+        options.addOption(graphOption);
+
+        Option componentsOption = new Option("P", "components", true, "Translate each independent component of -i into its own model in the given directory");
+        options.addOption(componentsOption);
+
         CommandLineParser parser = new BasicParser();
         try
         {
@@ -63,6 +247,163 @@ public class SoarTranslator
                 soarSourceFile = parsedOptions.getOptionValue(inputFileOption.getOpt());
             }
 
+            if (parsedOptions.hasOption(cacheOption.getOpt()))
+            {
+                cacheDirectory = Paths.get(parsedOptions.getOptionValue(cacheOption.getOpt()));
+            }
+
+            parseStatisticsFlag = parsedOptions.hasOption(parseStatisticsOption.getOpt());
+            removeDeadFlag = parsedOptions.hasOption(removeDeadOption.getOpt());
+            singleProcessFlag = parsedOptions.hasOption(singleProcessOption.getOpt());
+            watchFlag = parsedOptions.hasOption(watchOption.getOpt());
+
+            if (parsedOptions.hasOption(statsOption.getOpt()))
+            {
+                statsFile = Paths.get(parsedOptions.getOptionValue(statsOption.getOpt()));
+            }
+
+            if (parsedOptions.hasOption(symbolMapOption.getOpt()))
+            {
+                symbolMapFile = Paths.get(parsedOptions.getOptionValue(symbolMapOption.getOpt()));
+            }
+
+            if (parsedOptions.hasOption(queryOption.getOpt()))
+            {
+                queryFile = Paths.get(parsedOptions.getOptionValue(queryOption.getOpt()));
+            }
+
+            if (parsedOptions.hasOption(graphOption.getOpt()) || parsedOptions.hasOption(componentsOption.getOpt()))
+            {
+                if (parsedOptions.hasOption(graphOption.getOpt()))
+                {
+                    graphFile = Paths.get(parsedOptions.getOptionValue(graphOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(componentsOption.getOpt()))
+                {
+                    componentsDirectory = Paths.get(parsedOptions.getOptionValue(componentsOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(threadsOption.getOpt()))
+                {
+                    batchThreads = Integer.parseInt(parsedOptions.getOptionValue(threadsOption.getOpt()));
+                }
+
+                if (soarSourceFile == null)
+                {
+                    new HelpFormatter().printHelp("-i InputFile [--graph File] [--components Directory]", options);
+                    System.exit(1);
+                }
+                return;
+            }
+
+            if (parsedOptions.hasOption(checkOption.getOpt()))
+            {
+                checkQueryFiles = Arrays.stream(parsedOptions.getOptionValues(checkOption.getOpt()))
+                        .map(Paths::get)
+                        .collect(Collectors.toList());
+
+                if (parsedOptions.hasOption(threadsOption.getOpt()))
+                {
+                    batchThreads = Integer.parseInt(parsedOptions.getOptionValue(threadsOption.getOpt()));
+                }
+
+                if (soarSourceFile == null)
+                {
+                    new HelpFormatter().printHelp("-i InputFile --check QueryFiles", options);
+                    System.exit(1);
+                }
+                return;
+            }
+
+            if (parsedOptions.hasOption(simulateOption.getOpt()))
+            {
+                simulatePredicate = parsedOptions.getOptionValue(simulateOption.getOpt());
+
+                if (parsedOptions.hasOption(stepsOption.getOpt()))
+                {
+                    simulateSteps = Long.parseLong(parsedOptions.getOptionValue(stepsOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(walkLengthOption.getOpt()))
+                {
+                    walkLength = Integer.parseInt(parsedOptions.getOptionValue(walkLengthOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(seedOption.getOpt()))
+                {
+                    simulateSeed = Long.parseLong(parsedOptions.getOptionValue(seedOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(threadsOption.getOpt()))
+                {
+                    batchThreads = Integer.parseInt(parsedOptions.getOptionValue(threadsOption.getOpt()));
+                }
+
+                if (soarSourceFile == null)
+                {
+                    new HelpFormatter().printHelp("-i InputFile --simulate Predicate", options);
+                    System.exit(1);
+                }
+                return;
+            }
+
+            if (parsedOptions.hasOption(verifyOption.getOpt()))
+            {
+                verifyQueryFiles = Arrays.stream(parsedOptions.getOptionValues(verifyOption.getOpt()))
+                        .map(Paths::get)
+                        .collect(Collectors.toList());
+
+                if (parsedOptions.hasOption(verifierOption.getOpt()))
+                {
+                    verifier = parsedOptions.getOptionValue(verifierOption.getOpt());
+                }
+
+                if (parsedOptions.hasOption(reportOption.getOpt()))
+                {
+                    reportFile = Paths.get(parsedOptions.getOptionValue(reportOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(timeoutOption.getOpt()))
+                {
+                    verifyTimeoutSeconds = Long.parseLong(parsedOptions.getOptionValue(timeoutOption.getOpt()));
+                }
+
+                if (parsedOptions.hasOption(threadsOption.getOpt()))
+                {
+                    batchThreads = Integer.parseInt(parsedOptions.getOptionValue(threadsOption.getOpt()));
+                }
+
+                if (outputFile == null)
+                {
+                    new HelpFormatter().printHelp("-o Model [-i InputFile] --verify QueryFiles", options);
+                    System.exit(1);
+                }
+                return;
+            }
+
+            if (parsedOptions.hasOption(batchOption.getOpt()))
+            {
+                batchInputs = parsedOptions.getOptionValues(batchOption.getOpt());
+
+                if (parsedOptions.hasOption(threadsOption.getOpt()))
+                {
+                    batchThreads = Integer.parseInt(parsedOptions.getOptionValue(threadsOption.getOpt()));
+                }
+
+                if (outputFile == null)
+                {
+                    outputFile = ".";
+                }
+                return;
+            }
+
+            if ((soarSourceFile == null || outputFile == null) && GraphicsEnvironment.isHeadless())
+            {
+                new HelpFormatter().printHelp("-o OutputFile -i InputFile", options);
+                System.exit(1);
+            }
+
             if (soarSourceFile == null) soarSourceFile = getFileFromDialog("Choose Source Soar File");
             if (outputFile == null) outputFile = getFileFromDialog("Choose output UPPAAL File");
 
@@ -82,27 +423,372 @@ public class SoarTranslator
         }
     }
 
-    private static String getUPPAAL(String soarSourceFile) throws IOException
+    /**
+     * Check the properties of the query files against the output model and write the report
+     *
+     * @return true if every property got a verdict
+     */
+    private static boolean verify() throws IOException
     {
-        SoarParser soarParseTree = new SoarParser(new CommonTokenStream(new SoarLexer(new ANTLRFileStream(soarSourceFile))));
+        VerificationRunner runner = new VerificationRunner(Paths.get(outputFile), verifyQueryFiles, verifier, batchThreads, verifyTimeoutSeconds);
+        Writer report = reportFile == null
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8);
 
-        SymbolVisitor symbolVisitor = new SymbolVisitor(soarParseTree.soar());
+        try
+        {
+            return runner.run(report);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            if (reportFile != null)
+            {
+                report.close();
+            }
+            else
+            {
+                report.flush();
+            }
+        }
+    }
+
+    /**
+     * Write the dependency graph of the input, and translate each of its independent components into a model of its
+     * own. A component's model also holds the goal production and whatever can affect it, since the scheduler stops
+     * when the goal holds; a component that does not affect the goal holds nothing else.
+     *
+     * @return true if every component was translated
+     */
+    private static boolean writeDependencies(TranslationOptions options) throws IOException
+    {
+        List<Production> productions = parse(soarSourceFile, options.statistics);
+        DependencyGraph graph = getVisitor(productions, options, null, new TranslationMetrics()).getDependencyGraph(productions);
+
+        if (graphFile != null)
+        {
+            try (Writer out = Files.newBufferedWriter(graphFile, StandardCharsets.UTF_8))
+            {
+                if (graphFile.toString().endsWith(".json"))
+                {
+                    graph.writeJson(out);
+                }
+                else
+                {
+                    graph.writeDot(out);
+                }
+            }
+        }
+
+        if (componentsDirectory == null)
+        {
+            return true;
+        }
+
+        Files.createDirectories(componentsDirectory);
+        List<List<Integer>> components = graph.getIndependentComponents();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, batchThreads));
+
+        try
+        {
+            List<String> failures = pool.submit(() -> IntStream.range(0, components.size())
+                    .parallel()
+                    .mapToObj(i -> writeComponent(productions, graph, components.get(i), componentsDirectory.resolve("component_" + i + ".xml")))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())).get();
+
+            failures.forEach(System.err::println);
+            System.out.println(String.format("%d productions in %d independent components, %d strongly connected components",
+                    productions.size(), components.size(), graph.getStronglyConnectedComponents().size()));
+            return failures.isEmpty();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Translate the productions of one component, and those the goal depends on, into a model
+     *
+     * @return null, or why the model could not be written
+     */
+    private static String writeComponent(List<Production> productions, DependencyGraph graph, List<Integer> component, Path file)
+    {
+        // Translations of different components share neither a cache nor a symbol map
+        TranslationOptions options = new TranslationOptions();
+        options.queryNames = component.stream().map(graph::getTemplate).collect(Collectors.toSet());
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file)))
+        {
+            writeUPPAAL(productions, soarSourceFile, out, options, new TranslationMetrics());
+            return null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return file + ": " + e;
+        }
+    }
+
+    /**
+     * Check the properties of the query files against the input with the built-in checker and print the verdicts
+     *
+     * @return true if every property could be checked
+     */
+    private static boolean check(TranslationOptions options) throws IOException
+    {
+        ReachabilityChecker checker = getReachabilityChecker(soarSourceFile, options);
+        boolean succeeded = true;
+
+        for (Path queryFile : checkQueryFiles)
+        {
+            for (VerificationRunner.Property property : VerificationRunner.readProperties(queryFile))
+            {
+                ReachabilityChecker.Result result = checker.check(property.formula, batchThreads);
+                System.out.println(queryFile + ":" + property.line + ": " + result);
+                succeeded &= result.error == null;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Run walks of the input's network until the predicate holds and print the trace
+     *
+     * @return true if no walk found the predicate holding or an assignment out of range
+     */
+    private static boolean simulate(TranslationOptions options) throws IOException
+    {
+        try
+        {
+            ReachabilityChecker network = getReachabilityChecker(soarSourceFile, options);
+            RandomWalkSimulator simulator = new RandomWalkSimulator(network, simulatePredicate, batchThreads, simulateSteps, walkLength, simulateSeed);
+            RandomWalkSimulator.Result result = simulator.run();
+
+            System.out.println(result);
+            return result.trace == null;
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println("Cannot simulate: " + e.getMessage());
+            return false;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    static String getUPPAAL(String soarSourceFile) throws IOException
+    {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        writeUPPAAL(soarSourceFile, xml);
+        return new String(xml.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Translate a Soar file and stream the UPPAAL model to the given output
+     */
+    static void writeUPPAAL(String soarSourceFile, OutputStream out) throws IOException
+    {
+        writeUPPAAL(soarSourceFile, out, new TranslationOptions());
+    }
+
+    /**
+     * Translate a Soar file into the given file. The model is written to a temporary file next to it, which only
+     * replaces it once the translation succeeds, so a failed translation leaves the previous model in place.
+     */
+    static void writeUPPAAL(String soarSourceFile, Path outputFile, TranslationOptions options) throws IOException
+    {
+        AtomicFile.write(outputFile, out -> writeUPPAAL(soarSourceFile, out, options));
+    }
+
+    /**
+     * Translate a Soar file with the given options
+     */
+    static void writeUPPAAL(String soarSourceFile, OutputStream out, TranslationOptions options) throws IOException
+    {
+        long start = System.nanoTime();
+        TranslationMetrics metrics = options.metrics == null ? new TranslationMetrics() : options.metrics;
+        ParseStatistics statistics = options.statistics == null ? new ParseStatistics() : options.statistics;
+
+        List<Production> productions = parse(soarSourceFile, statistics);
+
+        metrics.setSource(soarSourceFile);
+        metrics.setLoadNanos(System.nanoTime() - start);
+        metrics.add(TranslationMetrics.LEX, statistics.lexNanos, statistics.lexAllocatedBytes);
+        metrics.add(TranslationMetrics.PARSE, statistics.parseNanos, statistics.parseAllocatedBytes);
+        metrics.count("files", statistics.files);
+        metrics.count("tokens", statistics.tokens);
+        writeUPPAAL(productions, soarSourceFile, out, options, metrics);
+        metrics.setTotalNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Translate productions that are already loaded
+     *
+     * @param soarSourceFile the file they were loaded from, whose cache file they use
+     * @param metrics filled in with the time of each phase after loading, and the size of the model
+     */
+    static void writeUPPAAL(List<Production> productions, String soarSourceFile, OutputStream out, TranslationOptions options, TranslationMetrics metrics) throws IOException
+    {
+        metrics.count("productions", productions.size());
+
+        TranslationCache cache = options.cache;
+        if (cache == null && options.cacheDirectory != null)
+        {
+            cache = TranslationCache.open(options.cacheDirectory, soarSourceFile);
+        }
+
+        try
+        {
+            UPPAALSemanticVisitor visitor = getVisitor(productions, options, cache, metrics);
+            visitor.setMetrics(metrics);
+            visitor.visitSoar(productions, out);
+
+            if (options.deadProductions != null)
+            {
+                options.deadProductions.addAll(visitor.getDeadProductions());
+            }
+
+            metrics.begin(TranslationMetrics.SAVE);
+            out.flush();
+
+            if (options.symbolMap != null)
+            {
+                try (Writer symbolMap = Files.newBufferedWriter(options.symbolMap, StandardCharsets.UTF_8))
+                {
+                    visitor.getSymbolEncoding().writeMapping(symbolMap);
+                }
+            }
+
+            if (cache != null)
+            {
+                cache.save();
+            }
+            metrics.end();
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The network a translation with the given options would write, for the built-in checker
+     */
+    static ReachabilityChecker getReachabilityChecker(String soarSourceFile, TranslationOptions options) throws IOException
+    {
+        List<Production> productions = parse(soarSourceFile, options.statistics);
+        return getVisitor(productions, options, null, new TranslationMetrics()).getReachabilityChecker(productions);
+    }
+
+    private static UPPAALSemanticVisitor getVisitor(List<Production> productions, TranslationOptions options, TranslationCache cache, TranslationMetrics metrics)
+    {
+        metrics.begin(TranslationMetrics.SYMBOL_VISIT);
+        SymbolVisitor symbolVisitor = new SymbolVisitor(productions);
         Set<String> stringAttributeNames = symbolVisitor.getStringSymbols();
         Set<String> boolAttributeNames = symbolVisitor.getBooleanSymbols();
 
         Map<String, Map<String, String>> variablesPerProductionContext = symbolVisitor.getGlobalVariableDictionary();
 
-        soarParseTree.reset();
-
         stringAttributeNames = stringAttributeNames
                 .stream()
                 .map(name -> name.replace("-", "_"))
                 .collect(Collectors.toSet());
+        metrics.end();
+
+        UPPAALSemanticVisitor visitor = new UPPAALSemanticVisitor(stringAttributeNames, variablesPerProductionContext, boolAttributeNames, cache);
+        visitor.setQueryNames(options.queryNames);
+        visitor.setSingleProcess(options.singleProcess);
+        visitor.setRemoveDeadProductions(options.removeDeadProductions);
+        visitor.setEnumerateSymbols(options.symbolMap != null);
+        return visitor;
+    }
+
+    /**
+     * Parse a Soar file, and the files it sources, into productions. The token streams and parse trees are garbage
+     * once this returns.
+     */
+    static List<Production> parse(String soarSourceFile) throws IOException
+    {
+        return parse(soarSourceFile, null);
+    }
+
+    /**
+     * Load the productions of a Soar file and of the files it sources
+     *
+     * @param statistics filled in with timings and cache sizes, or null
+     */
+    static List<Production> parse(String soarSourceFile, ParseStatistics statistics) throws IOException
+    {
+        return SoarSourceLoader.load(soarSourceFile, statistics);
+    }
+
+    /**
+     * Parse in two stages: SLL prediction, which is fast but may fail on inputs that need full context, stopping at
+     * the first syntax error; then, only if that failed, full LL with the usual error reporting and recovery.
+     *
+     * @param statistics filled in with timings and cache sizes, or null
+     */
+    static List<Production> parse(CommonTokenStream tokens, ParseStatistics statistics)
+    {
+        long start = System.nanoTime();
+
+        SoarParser parser = PARSER.get();
+        parser.setTokenStream(tokens);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+
+        SoarParser.SoarContext soarParseTree = null;
+        boolean fellBackToLL = false;
+
+        try
+        {
+            soarParseTree = parser.soar();
+        }
+        catch (ParseCancellationException e)
+        {
+            fellBackToLL = true;
+        }
+
+        long parsed = System.nanoTime();
+
+        if (fellBackToLL)
+        {
+            parser.reset();
+            parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            soarParseTree = parser.soar();
+        }
+
+        if (statistics != null)
+        {
+            statistics.sllNanos = parsed - start;
+            statistics.fellBackToLL = fellBackToLL;
+            statistics.llNanos = fellBackToLL ? System.nanoTime() - parsed : 0;
+            statistics.recordParserCache(parser);
+        }
 
-//        UPPAALCreator uppaalCreator = new UPPAALCreator(stringAttributeNames, soarParseTree.soar(), variablesPerProductionContext, boolAttributeNames);
-//        return uppaalCreator.getXML();
-        soarParseTree.soar().accept(new UPPAALSemanticVisitor(stringAttributeNames, variablesPerProductionContext, boolAttributeNames));
-        return "";
+        // Let go of the tokens until the next parse on this thread
+        parser.setTokenStream(null);
+        return ProductionBuilder.build(soarParseTree);
     }
 
     private static String getFileFromDialog(String title)
@@ -0,0 +1,194 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An ANTLR character stream over part of a Soar file, read in place rather than copied into a char array.
+ * Characters in the blanked ranges (Soar commands that are not productions) read as spaces, so the parser only sees
+ * productions while token positions and line numbers still match the file.
+ */
+class SourceCharStream implements CharStream
+{
+    private final CharSequence text;
+    private final int from;
+    private final int to;
+    private final int[] blanks;
+    private final String sourceName;
+    private int index;
+    private int blankCursor = 0;
+
+    /**
+     * @param text the whole file
+     * @param from index of the first character to read
+     * @param to index after the last character to read
+     * @param blanks sorted, non-overlapping [start, end) pairs of indices to read as spaces
+     */
+    SourceCharStream(CharSequence text, int from, int to, int[] blanks, String sourceName)
+    {
+        this.text = text;
+        this.from = from;
+        this.to = to;
+        this.blanks = blanks;
+        this.sourceName = sourceName;
+        index = from;
+    }
+
+    private char charAt(int i)
+    {
+        return isBlank(i) ? ' ' : text.charAt(i);
+    }
+
+    /**
+     * Reads are nearly always at or just after the previous one, so start looking from the last blank range used
+     */
+    private boolean isBlank(int i)
+    {
+        if (blanks.length == 0)
+        {
+            return false;
+        }
+
+        if (blankCursor >= blanks.length || blanks[blankCursor] > i)
+        {
+            blankCursor = 0;
+        }
+
+        while (blankCursor < blanks.length && blanks[blankCursor + 1] <= i)
+        {
+            blankCursor += 2;
+        }
+        return blankCursor < blanks.length && blanks[blankCursor] <= i;
+    }
+
+    @Override
+    public void consume()
+    {
+        if (index >= to)
+        {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        index++;
+    }
+
+    @Override
+    public int LA(int i)
+    {
+        if (i == 0)
+        {
+            return 0;
+        }
+
+        int position = i > 0 ? index + i - 1 : index + i;
+        return position < from || position >= to ? IntStream.EOF : charAt(position);
+    }
+
+    @Override
+    public int mark()
+    {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker)
+    {
+    }
+
+    @Override
+    public int index()
+    {
+        return index;
+    }
+
+    @Override
+    public void seek(int index)
+    {
+        this.index = Math.min(Math.max(index, from), to);
+    }
+
+    @Override
+    public int size()
+    {
+        return to;
+    }
+
+    @Override
+    public String getSourceName()
+    {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval)
+    {
+        int start = Math.max(interval.a, from);
+        int stop = Math.min(interval.b, to - 1);
+        StringBuilder result = new StringBuilder(Math.max(0, stop - start + 1));
+
+        for (int i = start; i <= stop; i++)
+        {
+            result.append(charAt(i));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The bytes of an ASCII file as characters, without decoding them into a copy
+     */
+    static class AsciiSequence implements CharSequence
+    {
+        private final ByteBuffer bytes;
+
+        AsciiSequence(ByteBuffer bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return true if every byte is 7-bit ASCII, in which case each byte is one character
+         */
+        static boolean isAscii(ByteBuffer bytes)
+        {
+            for (int i = bytes.position(); i < bytes.limit(); i++)
+            {
+                if (bytes.get(i) < 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length()
+        {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) bytes.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            StringBuilder result = new StringBuilder(end - start);
+            for (int i = start; i < end; i++)
+            {
+                result.append(charAt(i));
+            }
+            return result.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
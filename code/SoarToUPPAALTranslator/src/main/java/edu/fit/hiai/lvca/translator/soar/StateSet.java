@@ -0,0 +1,150 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The set of visited states of a search, each a fixed number of packed words. Adding is lock-free: a thread claims an
+ * empty slot with a compare-and-set, copies the state in and then marks the slot full, while other threads that
+ * probe the slot wait for it to be full before comparing.
+ *
+ * The table does not grow while states are being added. Whoever adds states must make room for them first with
+ * ensureCapacity, which is not thread-safe.
+ */
+class StateSet
+{
+    private static final int EMPTY = 0;
+    private static final int WRITING = 1;
+    private static final int FULL = 2;
+
+    private final int words;
+    private final AtomicInteger size = new AtomicInteger();
+    private long[] states;
+    private AtomicIntegerArray slots;
+    private int capacity;
+
+    /**
+     * @param words length of every state
+     */
+    StateSet(int words, int expectedStates)
+    {
+        this.words = words;
+        allocate(tableSize(expectedStates));
+    }
+
+    /**
+     * Add a state; the array is copied, so it may be reused afterwards
+     *
+     * @return true if the state was not in the set before
+     */
+    boolean add(long[] state)
+    {
+        int mask = capacity - 1;
+        int slot = hash(state) & mask;
+
+        for (int probe = 0; probe < capacity; probe++, slot = (slot + 1) & mask)
+        {
+            int status = slots.get(slot);
+
+            if (status == EMPTY)
+            {
+                if (slots.compareAndSet(slot, EMPTY, WRITING))
+                {
+                    System.arraycopy(state, 0, states, slot * words, words);
+                    slots.set(slot, FULL);
+                    size.incrementAndGet();
+                    return true;
+                }
+                status = slots.get(slot);
+            }
+
+            while (status == WRITING)
+            {
+                Thread.yield();
+                status = slots.get(slot);
+            }
+
+            if (matches(slot, state))
+            {
+                return false;
+            }
+        }
+        throw new IllegalStateException("State set is full; call ensureCapacity before adding");
+    }
+
+    int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * Make sure that this many states in total fit without the table getting more than half full. Must not be called
+     * while states are being added.
+     */
+    void ensureCapacity(int states)
+    {
+        int needed = tableSize(states);
+
+        if (needed > capacity)
+        {
+            long[] oldStates = this.states;
+            AtomicIntegerArray oldSlots = slots;
+            int oldCapacity = capacity;
+
+            allocate(needed);
+            size.set(0);
+
+            long[] state = new long[words];
+            for (int slot = 0; slot < oldCapacity; slot++)
+            {
+                if (oldSlots.get(slot) == FULL)
+                {
+                    System.arraycopy(oldStates, slot * words, state, 0, words);
+                    add(state);
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        this.capacity = capacity;
+        states = new long[Math.multiplyExact(capacity, words)];
+        slots = new AtomicIntegerArray(capacity);
+    }
+
+    private boolean matches(int slot, long[] state)
+    {
+        int offset = slot * words;
+
+        for (int i = 0; i < words; i++)
+        {
+            if (states[offset + i] != state[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a power of two at least twice the number of states
+     */
+    private static int tableSize(int states)
+    {
+        int capacity = 16;
+        while (capacity < 2L * states)
+        {
+            capacity = Math.multiplyExact(capacity, 2);
+        }
+        return capacity;
+    }
+
+    private static int hash(long[] state)
+    {
+        long hash = Arrays.hashCode(state);
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
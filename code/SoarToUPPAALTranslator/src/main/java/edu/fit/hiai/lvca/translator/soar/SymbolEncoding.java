@@ -0,0 +1,261 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Number the symbols of each attribute domain densely from 1, instead of numbering every symbol of the agent once.
+ *
+ * State variables that are compared with each other or combined in arithmetic must agree on the value of a symbol,
+ * so they share a domain. A symbol belongs to the domains of the variables it is compared with or assigned to. A
+ * symbol in only one domain keeps its name; one in several domains gets a constant per domain, named after the
+ * domain's first variable, e.g. state_name__counter, and expressions are rewritten to use the right one. nil is 0 in
+ * every domain.
+ */
+class SymbolEncoding
+{
+    private static final String NIL = "nil";
+    private static final String SEPARATOR = "__";
+
+    private final Set<String> symbols;
+    private final Set<String> booleans;
+    private final Map<String, String> parents = new HashMap<>();
+    private final Map<String, Set<String>> symbolsPerVariable = new HashMap<>();
+
+    private final Map<String, String> domainOfVariable = new HashMap<>();
+    private final Map<String, Map<String, String>> namesPerDomain = new HashMap<>();
+    private final Map<String, Integer> constants = new LinkedHashMap<>();
+    private final SortedMap<String, SortedMap<Integer, String>> mapping = new TreeMap<>();
+    private String fingerprint;
+
+    /**
+     * @param symbols the symbolic constants of the agent, by their names in expressions
+     * @param booleans the boolean state variables, which take no symbols
+     */
+    SymbolEncoding(Set<String> symbols, Set<String> booleans)
+    {
+        this.symbols = symbols;
+        this.booleans = booleans;
+    }
+
+    /**
+     * Take the variables and symbols of a guard or assignment into account. Call for every expression before number().
+     */
+    void add(Expression expression)
+    {
+        if (expression instanceof Expression.Conjunction)
+        {
+            ((Expression.Conjunction) expression).terms.forEach(this::add);
+            return;
+        }
+        else if (expression instanceof Expression.Negation)
+        {
+            add(((Expression.Negation) expression).operand);
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        expression.addNames(names);
+
+        String domain = null;
+        for (String name : names)
+        {
+            if (isVariable(name))
+            {
+                domain = domain == null ? find(name) : union(domain, name);
+            }
+        }
+
+        if (domain != null)
+        {
+            Set<String> domainSymbols = symbolsPerVariable.computeIfAbsent(domain, d -> new HashSet<>());
+            names.stream().filter(this::isSymbol).forEach(domainSymbols::add);
+        }
+    }
+
+    /**
+     * Number the symbols of each domain, once every expression has been added
+     */
+    void number()
+    {
+        Map<String, SortedSet<String>> domains = new TreeMap<>();
+        for (String variable : parents.keySet())
+        {
+            domains.computeIfAbsent(find(variable), d -> new TreeSet<>()).add(variable);
+        }
+
+        Map<String, SortedSet<String>> symbolsPerDomain = new HashMap<>();
+        Map<String, Integer> domainsPerSymbol = new HashMap<>();
+
+        for (Map.Entry<String, Set<String>> entry : symbolsPerVariable.entrySet())
+        {
+            symbolsPerDomain.computeIfAbsent(find(entry.getKey()), d -> new TreeSet<>()).addAll(entry.getValue());
+        }
+        for (SortedSet<String> domainSymbols : symbolsPerDomain.values())
+        {
+            domainSymbols.forEach(symbol -> domainsPerSymbol.merge(symbol, 1, Integer::sum));
+        }
+
+        constants.put(NIL, 0);
+
+        for (Map.Entry<String, SortedSet<String>> domain : domains.entrySet())
+        {
+            String domainName = domain.getValue().first();
+            Map<String, String> names = new HashMap<>();
+            SortedMap<Integer, String> values = new TreeMap<>();
+            values.put(0, NIL);
+            int value = 1;
+
+            for (String symbol : symbolsPerDomain.getOrDefault(domain.getKey(), new TreeSet<>()))
+            {
+                String name = domainsPerSymbol.get(symbol) > 1 ? domainName + SEPARATOR + symbol : symbol;
+                names.put(symbol, name);
+                constants.put(name, value);
+                values.put(value++, symbol);
+            }
+
+            namesPerDomain.put(domain.getKey(), names);
+            for (String variable : domain.getValue())
+            {
+                domainOfVariable.put(variable, domain.getKey());
+                mapping.put(variable, values);
+            }
+        }
+
+        // Symbols that are never compared with a variable still have to be declared
+        int value = 1;
+        for (String symbol : new TreeSet<>(symbols))
+        {
+            if (!domainsPerSymbol.containsKey(symbol) && !symbol.equals(NIL))
+            {
+                constants.put(symbol, value++);
+            }
+        }
+
+        StringBuilder numbering = new StringBuilder(constants.toString());
+        new TreeMap<>(domainOfVariable).forEach((variable, domain) -> numbering.append(variable).append('=').append(domain));
+        fingerprint = TranslationCache.hash(numbering.toString());
+    }
+
+    /**
+     * @return the expression with each symbol replaced by its constant in the domain it is used in. Safe to call from
+     * several threads once number() has returned.
+     */
+    Expression encode(Expression expression)
+    {
+        if (expression instanceof Expression.Conjunction)
+        {
+            List<Expression> terms = new ArrayList<>();
+            ((Expression.Conjunction) expression).terms.forEach(term -> terms.add(encode(term)));
+            return new Expression.Conjunction(terms);
+        }
+        else if (expression instanceof Expression.Negation)
+        {
+            return new Expression.Negation(encode(((Expression.Negation) expression).operand));
+        }
+
+        List<String> names = new ArrayList<>();
+        expression.addNames(names);
+        Optional<String> variable = names.stream().filter(this::isVariable).findFirst();
+
+        return variable.isPresent() ? rename(expression, namesPerDomain.get(domainOfVariable.get(variable.get()))) : expression;
+    }
+
+    /**
+     * @return value of each constant to declare, including nil, in declaration order
+     */
+    Map<String, Integer> getConstants()
+    {
+        return constants;
+    }
+
+    /**
+     * @return a digest of the numbering, which changes whenever any expression would be encoded differently
+     */
+    String fingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * Write, for each variable, the symbol behind each of its values, one "variable value symbol" line each, to read
+     * the values in counterexample traces
+     */
+    void writeMapping(Writer out) throws IOException
+    {
+        out.write("# variable\tvalue\tsymbol\n");
+
+        for (Map.Entry<String, SortedMap<Integer, String>> variable : mapping.entrySet())
+        {
+            for (Map.Entry<Integer, String> value : variable.getValue().entrySet())
+            {
+                out.write(variable.getKey() + "\t" + value.getKey() + "\t" + value.getValue() + "\n");
+            }
+        }
+    }
+
+    private Expression rename(Expression expression, Map<String, String> names)
+    {
+        if (expression instanceof Expression.Name)
+        {
+            String name = ((Expression.Name) expression).name;
+            return names.containsKey(name) ? new Expression.Name(names.get(name)) : expression;
+        }
+        else if (expression instanceof Expression.Relation)
+        {
+            Expression.Relation relation = (Expression.Relation) expression;
+            return new Expression.Relation(rename(relation.left, names), relation.operator, rename(relation.right, names));
+        }
+        else if (expression instanceof Expression.Arithmetic)
+        {
+            Expression.Arithmetic arithmetic = (Expression.Arithmetic) expression;
+            return new Expression.Arithmetic(rename(arithmetic.left, names), arithmetic.operator, rename(arithmetic.right, names));
+        }
+        else if (expression instanceof Expression.Assignment)
+        {
+            Expression.Assignment assignment = (Expression.Assignment) expression;
+            return new Expression.Assignment(assignment.variable, rename(assignment.value, names));
+        }
+        return expression;
+    }
+
+    private boolean isVariable(String name)
+    {
+        return name.startsWith("state") && !booleans.contains(name);
+    }
+
+    private boolean isSymbol(String name)
+    {
+        return symbols.contains(name) && !name.equals(NIL);
+    }
+
+    private String find(String variable)
+    {
+        String root = variable;
+        String parent;
+
+        while (!(parent = parents.computeIfAbsent(root, v -> v)).equals(root))
+        {
+            root = parent;
+        }
+
+        // Point the whole path at the root, so later lookups are short
+        while (!variable.equals(root))
+        {
+            variable = parents.put(variable, root);
+        }
+        return root;
+    }
+
+    private String union(String domain, String variable)
+    {
+        String other = find(variable);
+
+        if (!other.equals(domain))
+        {
+            parents.put(other, domain);
+        }
+        return domain;
+    }
+}
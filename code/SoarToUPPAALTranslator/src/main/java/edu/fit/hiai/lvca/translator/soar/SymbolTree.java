@@ -6,16 +6,49 @@ import java.util.*;
  * Created by mstafford on 6/17/16.
  *
  * Designed to capture the identifiers and hierarchy of a Soar agent
+ *
+ * Children are indexed by name, and the root of each tree keeps a name -> nodes index over the whole tree, along with
+ * the first node (depth-first) of each name, so lookups from the root cost time proportional to the depth of the
+ * result rather than the size of the tree. The underscore delimited path from the root is cached on every node.
+ *
+ * Every node remembers how many subtrees had been added to its tree when it joined, so a path can also be looked up
+ * as it was at an earlier point in building the tree.
  */
 public class SymbolTree
 {
     final String name;
     private final List<SymbolTree> children;
+    private final Map<String, SymbolTree> childrenByName;
+    private SymbolTree parent = null;
+    private int ordinal = 0;
+    private int added = 0;
+    private int additions = 0;
+    private int preorder = 0;
+    private String rootPath = null;
+    private Map<String, List<SymbolTree>> index = null;
+    private Map<String, SymbolTree> firsts = null;
+    private Map<String, History> histories = null;
+
+    /**
+     * The nodes of one name in the order they joined the tree, and the first of them depth-first at each point
+     */
+    private static final class History
+    {
+        final int[] added;
+        final SymbolTree[] first;
+
+        History(int[] added, SymbolTree[] first)
+        {
+            this.added = added;
+            this.first = first;
+        }
+    }
 
     SymbolTree(String name)
     {
         this.name = name;
-        children = new LinkedList<>();
+        children = new ArrayList<>(2);
+        childrenByName = new HashMap<>(4);
     }
 
     private boolean isLeaf()
@@ -25,47 +58,203 @@ public class SymbolTree
 
     void addChild(SymbolTree childTree)
     {
-        if (children.stream().noneMatch(c -> c.name.equals(childTree.name)))
+        if (!childrenByName.containsKey(childTree.name))
         {
+            childTree.parent = this;
+            childTree.ordinal = children.size();
             children.add(childTree);
-        }
+            childrenByName.put(childTree.name, childTree);
 
+            SymbolTree root = getRoot();
+            root.additions++;
+            childTree.index = null;
+            childTree.firsts = null;
+            childTree.adopt(root, root.additions);
+        }
     }
 
     /**
-     * Return the first subtree (depth-first) that has the given name
+     * Clear the cached paths of this subtree and add its nodes to the index of the tree it now belongs to
      *
-     * @param treeName
-     * @return
+     * @param added the number of additions to that tree, counting this one, or -1 if the subtree was already in it
      */
-    SymbolTree getSubtree (String treeName)
+    private void adopt(SymbolTree root, int added)
     {
-        SymbolTree result = getSubtree0(treeName);
+        rootPath = null;
 
-        if (result == null)
+        if (added >= 0)
         {
-            throw new NoSuchElementException("Element not in tree");
+            this.added = added;
         }
-        return result;
+
+        if (root.index != null)
+        {
+            root.index.computeIfAbsent(name, n -> new ArrayList<>(1)).add(this);
+
+            // Nodes only ever join, and never move, so the first of a name only changes to a node that joins before it
+            SymbolTree first = root.firsts.get(name);
+            if (first == null || compareDepthFirst(this, first) < 0)
+            {
+                root.firsts.put(name, this);
+            }
+        }
+
+        for (SymbolTree child : children)
+        {
+            child.adopt(root, added);
+        }
+    }
+
+    private SymbolTree getRoot()
+    {
+        SymbolTree t = this;
+        while (t.parent != null)
+        {
+            t = t.parent;
+        }
+        return t;
     }
 
-    private SymbolTree getSubtree0 (String treeName)
+    private Map<String, List<SymbolTree>> getIndex()
+    {
+        SymbolTree root = getRoot();
+
+        if (root.index == null)
+        {
+            root.index = new HashMap<>();
+            root.firsts = new HashMap<>();
+            root.adopt(root, -1);
+        }
+        return root.index;
+    }
+
+    /**
+     * @return the underscore delimited names from the root of the tree to this node
+     */
+    private String getRootPath()
+    {
+        if (rootPath == null)
+        {
+            rootPath = parent == null ? name : parent.getRootPath() + "_" + name;
+        }
+        return rootPath;
+    }
+
+    private int getDepth()
+    {
+        int depth = 0;
+        for (SymbolTree t = this; t.parent != null; t = t.parent)
+        {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Order nodes of the same tree as a depth-first, pre-order walk would visit them: an ancestor comes first, and
+     * otherwise the nodes are ordered by the children of their closest common ancestor they descend from
+     */
+    private static int compareDepthFirst(SymbolTree a, SymbolTree b)
+    {
+        int aDepth = a.getDepth();
+        int bDepth = b.getDepth();
+        SymbolTree aUp = a;
+        SymbolTree bUp = b;
+
+        for (int i = aDepth; i > bDepth; i--)
+        {
+            aUp = aUp.parent;
+        }
+        for (int i = bDepth; i > aDepth; i--)
+        {
+            bUp = bUp.parent;
+        }
+
+        if (aUp == bUp)
+        {
+            return Integer.compare(aDepth, bDepth);
+        }
+
+        while (aUp.parent != bUp.parent)
+        {
+            aUp = aUp.parent;
+            bUp = bUp.parent;
+        }
+        return Integer.compare(aUp.ordinal, bUp.ordinal);
+    }
+
+    private boolean isAncestorOf(SymbolTree node)
+    {
+        for (SymbolTree t = node; t != null; t = t.parent)
+        {
+            if (t == this)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the first node (depth-first) in this subtree that has the given name, or null
+     */
+    private SymbolTree findFirst(String treeName)
     {
         if (name.equals(treeName))
         {
             return this;
         }
-        else
+
+        Map<String, List<SymbolTree>> rootIndex = getIndex();
+
+        if (parent == null)
         {
-            for (SymbolTree child : children)
+            return firsts.get(treeName);
+        }
+
+        List<SymbolTree> candidates = rootIndex.get(treeName);
+
+        if (candidates == null)
+        {
+            return null;
+        }
+
+        SymbolTree first = null;
+
+        for (SymbolTree candidate : candidates)
+        {
+            if (isAncestorOf(candidate) && (first == null || compareDepthFirst(candidate, first) < 0))
             {
-                if (child.getSubtree0(treeName) != null)
-                {
-                    return child;
-                }
+                first = candidate;
             }
         }
-        return null;
+        return first;
+    }
+
+    /**
+     * @return the underscore delimited names from this node down to the given descendant
+     */
+    private String pathFromHere(SymbolTree descendant)
+    {
+        String path = descendant.getRootPath();
+        return parent == null ? path : path.substring(getRootPath().length() - name.length());
+    }
+
+    /**
+     * Return the first subtree (depth-first) that has the given name
+     *
+     * @param treeName
+     * @return
+     */
+    SymbolTree getSubtree (String treeName)
+    {
+        SymbolTree result = findFirst(treeName);
+
+        if (result == null)
+        {
+            throw new NoSuchElementException("Element not in tree");
+        }
+        return result;
     }
 
     /**
@@ -76,25 +265,102 @@ public class SymbolTree
      */
     String pathTo (String treeName)
     {
+        SymbolTree result = findFirst(treeName);
+
+        return result == null ? null : pathFromHere(result);
+    }
+
+    /**
+     * @return how many subtrees have been added to this tree so far
+     */
+    int getAdditions()
+    {
+        return getRoot().additions;
+    }
+
+    /**
+     * Record, for every name, which node pathTo would have found after each addition so far, and the path of each such
+     * node, so that looking up earlier paths only reads the tree. Call it again after the tree changes.
+     */
+    void buildIndex()
+    {
+        histories = new HashMap<>();
+        numberDepthFirst(0);
+
+        for (Map.Entry<String, List<SymbolTree>> entry : getIndex().entrySet())
+        {
+            List<SymbolTree> nodes = new ArrayList<>(entry.getValue());
+            nodes.sort(Comparator.comparingInt(node -> node.added));
+
+            int[] added = new int[nodes.size()];
+            SymbolTree[] first = new SymbolTree[nodes.size()];
+
+            for (int i = 0; i < nodes.size(); i++)
+            {
+                SymbolTree node = nodes.get(i);
+                added[i] = node.added;
+                first[i] = i == 0 || node.preorder < first[i - 1].preorder ? node : first[i - 1];
+                first[i].getRootPath();
+            }
+            histories.put(entry.getKey(), new History(added, first));
+        }
+    }
+
+    /**
+     * Number this subtree in depth-first, pre-order
+     *
+     * @return the next number
+     */
+    private int numberDepthFirst(int next)
+    {
+        preorder = next++;
+
+        for (SymbolTree child : children)
+        {
+            next = child.numberDepthFirst(next);
+        }
+        return next;
+    }
+
+    /**
+     * Give the path pathTo would have given from the root when the tree had seen the given number of additions. Once
+     * buildIndex has been called and until the tree changes, several threads may call this at once.
+     */
+    String pathTo(String treeName, int additions)
+    {
+        if (parent != null || histories == null)
+        {
+            throw new IllegalStateException("Earlier paths are looked up from the root, after buildIndex");
+        }
+
         if (name.equals(treeName))
         {
             return name;
         }
 
-        String suffix = children.stream()
-                .map(child -> child.pathTo(treeName))
-                .filter(Objects::nonNull)
-                .findFirst()
-                .orElse(null);
+        History history = histories.get(treeName);
 
-        if (suffix != null)
+        if (history == null)
         {
-            return name + "_" + suffix;
+            return null;
         }
-        else
+
+        // The last node that had joined by then
+        int low = 0;
+        int high = history.added.length;
+        while (low < high)
         {
-            return null;
+            int middle = (low + high) >>> 1;
+            if (history.added[middle] <= additions)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
         }
+        return low == 0 ? null : history.first[low - 1].getRootPath();
     }
 
     /**
@@ -103,28 +369,28 @@ public class SymbolTree
      */
     List<String> getAllPaths()
     {
-        if (isLeaf())
+        List<String> names = new LinkedList<>();
+        addLeafPaths(this, names);
+        return names;
+    }
+
+    private void addLeafPaths(SymbolTree tree, List<String> names)
+    {
+        if (tree.isLeaf())
         {
-            return Collections.singletonList(name);
+            names.add(pathFromHere(tree));
         }
         else
         {
-            List<String> names = new LinkedList<>();
-
-            for (SymbolTree child : children)
+            for (SymbolTree child : tree.children)
             {
-                for(String path : child.getAllPaths())
-                {
-                    names.add(name + "_" + path);
-                }
+                addLeafPaths(child, names);
             }
-
-            return names;
         }
     }
 
     List<SymbolTree> getChildren()
     {
-        return children;
+        return Collections.unmodifiableList(children);
     }
 }
@@ -1,10 +1,5 @@
 package edu.fit.hiai.lvca.translator.soar;
 
-import edu.fit.hiai.lvca.antlr4.SoarBaseVisitor;
-import edu.fit.hiai.lvca.antlr4.SoarParser;
-import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.tree.ParseTree;
-
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -13,19 +8,112 @@ import java.util.stream.Collectors;
  * Created by mstafford on 8/4/16.
  *
  * Get all identifiers used in the Soar agent
+ *
+ * Symbols are collected in three passes. First each production is visited on its own, in parallel: its constants,
+ * the subtrees its conditions and actions make, and what each of its variables is bound to only depend on the
+ * production. Then, in production order, the subtrees are added to the working memory tree, under the nodes their
+ * variables are bound to as the tree stands at that point. Last, in parallel again, each production's variables are
+ * resolved to paths in the tree as it stood once that production had been added, which gives the same paths as
+ * visiting the productions one after the other.
  */
-class SymbolVisitor extends SoarBaseVisitor<SymbolTree>
+class SymbolVisitor
 {
     private Set<String> stringSymbols = new HashSet<>();
     private Set<String> booleanSymbols = new HashSet<>();
     private SymbolTree workingMemoryTree = new SymbolTree("state");
-    private Map<String, String> currentVariableDictionary;
-    private String nestedVariableName;
     private Map<String, Map<String, String>> globalVariableDictionary = new HashMap<>();
 
-    public SymbolVisitor(SoarParser.SoarContext ctx)
+    /**
+     * What one production adds to the working memory tree, in order: each step either picks the node later steps add
+     * to, looks up a node only to report it missing, or adds a subtree to the picked node
+     */
+    private static final class Step
+    {
+        static final Step ROOT = new Step(true, null, null, false);
+        static final Step NOWHERE = new Step(true, null, null, false);
+
+        final boolean picks;
+        final String node;
+        final SymbolTree subtree;
+        final boolean probes;
+
+        private Step(boolean picks, String node, SymbolTree subtree, boolean probes)
+        {
+            this.picks = picks;
+            this.node = node;
+            this.subtree = subtree;
+            this.probes = probes;
+        }
+
+        static Step pick(String node)
+        {
+            return new Step(true, node, null, false);
+        }
+
+        static Step probe(String node)
+        {
+            return new Step(false, node, null, true);
+        }
+
+        static Step add(SymbolTree subtree)
+        {
+            return new Step(false, null, subtree, false);
+        }
+    }
+
+    /**
+     * The symbols of one production, collected without touching the working memory tree
+     */
+    private static final class ProductionSymbols
     {
-        ctx.soar_production().forEach(sp -> sp.accept(this));
+        final String name;
+        final List<String> stringSymbols = new ArrayList<>();
+        final List<String> booleanSymbols = new ArrayList<>();
+        final List<Step> steps = new ArrayList<>();
+
+        /**
+         * Variable -> name of the node it is bound to
+         */
+        final Map<String, String> variables = new HashMap<>();
+
+        /**
+         * Additions to the working memory tree once this production's subtrees were added
+         */
+        int additions;
+
+        private String nestedVariableName;
+
+        ProductionSymbols(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    public SymbolVisitor(List<Production> productions)
+    {
+        List<ProductionSymbols> collected = productions
+                .parallelStream()
+                .map(SymbolVisitor::visitProduction)
+                .collect(Collectors.toList());
+
+        for (ProductionSymbols production : collected)
+        {
+            merge(production);
+        }
+
+        workingMemoryTree.buildIndex();
+
+        // globalVariableDictionary: production name -> variable id -> variable path
+        List<Map<String, String>> variablePaths = collected
+                .parallelStream()
+                .map(this::resolveVariables)
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < collected.size(); i++)
+        {
+            globalVariableDictionary.put(collected.get(i).name, variablePaths.get(i));
+        }
+
         stringSymbols.addAll(workingMemoryTree.getAllPaths());
 
         booleanSymbols = booleanSymbols
@@ -58,107 +146,113 @@ class SymbolVisitor extends SoarBaseVisitor<SymbolTree>
         return globalVariableDictionary;
     }
 
-    @Override
-    public SymbolTree visitSoar(SoarParser.SoarContext ctx)
-    {
-        ctx.soar_production().forEach(p -> p.accept(this));
-        return workingMemoryTree;
-    }
-
-    @Override
-    public SymbolTree visitSoar_production(SoarParser.Soar_productionContext ctx)
+    /**
+     * Add a production's symbols and subtrees, in the order visiting it would have added them
+     */
+    private void merge(ProductionSymbols production)
     {
-        currentVariableDictionary = new HashMap<>();
-        ctx.condition_side().accept(this);
-        ctx.action_side().accept(this);
-
-        // globalVariableDictionary: production name -> variable id -> variable path
-
-        Map<String, String> variablePaths = new HashMap<>();
+        stringSymbols.addAll(production.stringSymbols);
+        booleanSymbols.addAll(production.booleanSymbols);
+        SymbolTree attachPoint = null;
 
-        for (HashMap.Entry<String, String> entry : currentVariableDictionary.entrySet())
+        for (Step step : production.steps)
         {
-            variablePaths.put(entry.getKey(), workingMemoryTree.pathTo(entry.getValue()));
+            if (step == Step.ROOT)
+            {
+                attachPoint = workingMemoryTree;
+            }
+            else if (step == Step.NOWHERE)
+            {
+                attachPoint = null;
+            }
+            else if (step.picks || step.probes)
+            {
+                SymbolTree node = lookUp(step.node);
+                if (step.picks)
+                {
+                    attachPoint = node;
+                }
+            }
+            else if (attachPoint != null)
+            {
+                attachPoint.addChild(step.subtree);
+            }
         }
-
-
-        globalVariableDictionary.put(ctx.sym_constant().getText(), variablePaths);
-        return null;
+        production.additions = workingMemoryTree.getAdditions();
     }
 
-    @Override
-    public SymbolTree visitCondition_side(SoarParser.Condition_sideContext ctx)
+    private SymbolTree lookUp(String node)
     {
-        ctx.state_imp_cond().accept(this);
-        ctx.cond().forEach(c -> c.accept(this));
+        try
+        {
+            return workingMemoryTree.getSubtree(node);
+        }
+        catch (NoSuchElementException e)
+        {
+            e.printStackTrace();
+        }
         return null;
     }
 
-    @Override
-    public SymbolTree visitState_imp_cond(SoarParser.State_imp_condContext ctx)
+    private Map<String, String> resolveVariables(ProductionSymbols production)
     {
-        currentVariableDictionary.put(ctx.id_test().getText(), workingMemoryTree.name);
-
-        ctx.attr_value_tests().forEach(avt -> workingMemoryTree.addChild(avt.accept(this)));
-        return null;
-    }
+        Map<String, String> variablePaths = new HashMap<>();
 
-    @Override
-    public SymbolTree visitCond(SoarParser.CondContext ctx)
-    {
-        ctx.positive_cond().accept(this);
-        return null;
+        for (HashMap.Entry<String, String> entry : production.variables.entrySet())
+        {
+            variablePaths.put(entry.getKey(), workingMemoryTree.pathTo(entry.getValue(), production.additions));
+        }
+        return variablePaths;
     }
 
-    @Override
-    public SymbolTree visitPositive_cond(SoarParser.Positive_condContext ctx)
+    private static ProductionSymbols visitProduction(Production production)
     {
-        ctx.conds_for_one_id().accept(this);
-        ctx.cond().forEach(c -> c.accept(this));
-        return null;
+        ProductionSymbols symbols = new ProductionSymbols(production.name);
+        production.conditions.forEach(condition -> visitCondition(condition, symbols));
+        production.actions.forEach(action -> visitAction(action, symbols));
+        return symbols;
     }
 
-    @Override
-    public SymbolTree visitConds_for_one_id(SoarParser.Conds_for_one_idContext ctx)
+    private static void visitCondition(Condition condition, ProductionSymbols symbols)
     {
-        SymbolTree attachPoint = ctx.id_test().accept(this);
-
-        for(SoarParser.Attr_value_testsContext avt : ctx.attr_value_tests())
+        if (condition.state)
         {
-            attachPoint.addChild(avt.accept(this));
+            if (condition.idText != null)
+            {
+                symbols.variables.put(condition.idText, "state");
+            }
+            symbols.steps.add(Step.ROOT);
+        }
+        else
+        {
+            visitTest(condition.idTest, symbols, true);
         }
 
-        return null;
-    }
-
-    @Override
-    public SymbolTree visitId_test(SoarParser.Id_testContext ctx)
-    {
-        return ctx.test().accept(this);
+        for (AttributeTest attributeTest : condition.attributeTests)
+        {
+            symbols.steps.add(Step.add(visitAttributeTest(attributeTest, symbols)));
+        }
     }
 
-    @Override
-    public SymbolTree visitAttr_value_tests(SoarParser.Attr_value_testsContext ctx)
+    private static SymbolTree visitAttributeTest(AttributeTest attributeTest, ProductionSymbols symbols)
     {
-        SymbolTree subtree = getTreeFromList(ctx.attr_test());
-        nestedVariableName = null;
-        ctx.value_test().forEach(vt -> vt.accept(this));
+        SymbolTree subtree = getTreeFromList(attributeTest.attributes);
+        symbols.nestedVariableName = null;
+        attributeTest.values.forEach(test -> visitTest(test, symbols, false));
 
-        if (nestedVariableName != null && !currentVariableDictionary.containsKey(nestedVariableName))
+        if (symbols.nestedVariableName != null && !symbols.variables.containsKey(symbols.nestedVariableName))
         {
-            currentVariableDictionary.put(nestedVariableName, getFirstLeaf(subtree));
+            symbols.variables.put(symbols.nestedVariableName, getFirstLeaf(subtree));
         }
 
-        if (ctx.value_test().size() > 0 &&
-                (  ctx.value_test(0).getText().equals("true")
-                || ctx.value_test(0).getText().equals("false")))
+        if (attributeTest.values.size() > 0 && attributeTest.values.get(0).isBooleanConstant())
         {
-            booleanSymbols.add(subtree.name);
+            symbols.booleanSymbols.add(subtree.name);
         }
         return subtree;
     }
 
-    private String getFirstLeaf(SymbolTree subtree)
+    private static String getFirstLeaf(SymbolTree subtree)
     {
         SymbolTree t = subtree;
         while (t.getChildren().size() > 0)
@@ -168,173 +262,130 @@ class SymbolVisitor extends SoarBaseVisitor<SymbolTree>
         return t.name;
     }
 
-    private SymbolTree getTreeFromList(List<? extends ParserRuleContext> ctxs)
+    private static SymbolTree getTreeFromList(List<String> names)
     {
-        if (ctxs.size() == 1)
+        if (names.size() == 1)
         {
-            return new SymbolTree(ctxs.get(0).getText());
+            return new SymbolTree(names.get(0));
         }
         else
         {
-            SymbolTree t = new SymbolTree(ctxs.get(0).getText());
-            t.addChild(getTreeFromList(ctxs.subList(1, ctxs.size())));
+            SymbolTree t = new SymbolTree(names.get(0));
+            t.addChild(getTreeFromList(names.subList(1, names.size())));
             return t;
         }
     }
 
-    @Override
-    public SymbolTree visitAttr_test(SoarParser.Attr_testContext ctx)
+    /**
+     * @param picks whether the test's node is where the condition's subtrees go; a constant's node is a tree of its
+     * own, outside the working memory tree
+     */
+    private static void visitTest(ValueTest test, ProductionSymbols symbols, boolean picks)
     {
-        ctx.test().accept(this);
-        return null;
-    }
-
-    @Override
-    public SymbolTree visitValue_test(SoarParser.Value_testContext ctx)
-    {
-        ctx.test().accept(this);
-        return null;
-    }
-
-    @Override
-    public SymbolTree visitTest(SoarParser.TestContext ctx)
-    {
-       return ctx.simple_test().accept(this);
-    }
-
-    @Override
-    public SymbolTree visitSimple_test(SoarParser.Simple_testContext ctx)
-    {
-        return ctx.relational_test().accept(this);
-    }
-
-    @Override
-    public SymbolTree visitRelational_test(SoarParser.Relational_testContext ctx)
-    {
-        return ctx.single_test().accept(this);
-    }
+        if (!test.isSupported())
+        {
+            if (picks)
+            {
+                symbols.steps.add(Step.NOWHERE);
+            }
+        }
+        else if (test.value.isVariable())
+        {
+            visitVariable(test.value, symbols, picks);
+        }
+        else
+        {
+            visitConstant(test.value, symbols);
 
-    @Override
-    public SymbolTree visitSingle_test(SoarParser.Single_testContext ctx)
-    {
-        return ctx.children.get(0).accept(this);
+            if (picks)
+            {
+                symbols.steps.add(Step.NOWHERE);
+            }
+        }
     }
 
-    @Override
-    public SymbolTree visitVariable(SoarParser.VariableContext ctx)
+    private static void visitVariable(Value variable, ProductionSymbols symbols, boolean picks)
     {
-        nestedVariableName = ctx.getText();
+        symbols.nestedVariableName = variable.text;
+        String variableName = symbols.variables.get(symbols.nestedVariableName);
 
-        try
+        if (variableName != null)
         {
-            String variableName = currentVariableDictionary.get(nestedVariableName);
-            if (variableName != null)
-            {
-                return workingMemoryTree.getSubtree(variableName);
-            }
+            symbols.steps.add(picks ? Step.pick(variableName) : Step.probe(variableName));
         }
-        catch (NoSuchElementException e)
+        else if (picks)
         {
-            e.printStackTrace();
+            symbols.steps.add(Step.NOWHERE);
         }
-        return null;
     }
 
-    @Override
-    public SymbolTree visitConstant(SoarParser.ConstantContext ctx)
+    private static SymbolTree visitConstant(Value constant, ProductionSymbols symbols)
     {
-        String result = ctx.getText();
+        String result = constant.text;
 
-        if (ctx.sym_constant() != null)
+        if (constant.kind == Value.Kind.SYMBOL)
         {
-            stringSymbols.add(ctx.getText());
+            symbols.stringSymbols.add(result);
         }
-        else if (ctx.Print_string() != null)
+        else if (constant.kind == Value.Kind.STRING)
         {
-            result = UPPAALCreator.LITERAL_STRING_PREFIX + ctx.Print_string().getText().split("|")[1];
-            stringSymbols.add(result);
+            result = UPPAALSemanticVisitor.LITERAL_STRING_PREFIX + constant.text.split("|")[1];
+            symbols.stringSymbols.add(result);
         }
 
         return new SymbolTree(result);
     }
 
-    @Override
-    public SymbolTree visitAction_side(SoarParser.Action_sideContext ctx)
+    private static void visitAction(Action action, ProductionSymbols symbols)
     {
-        ctx.action().forEach(a -> a.accept(this));
-        return null;
-    }
+        visitVariable(Value.variable(action.variable), symbols, true);
 
-    @Override
-    public SymbolTree visitAction(SoarParser.ActionContext ctx)
-    {
-        if (ctx.attr_value_make() != null && ctx.variable() != null)
+        for (AttributeMake attributeMake : action.attributeMakes)
         {
-            SymbolTree attachPoint = ctx.variable().accept(this);
-            ctx.attr_value_make().forEach(avm -> attachPoint.addChild(avm.accept(this)));
-            System.out.println();
+            symbols.steps.add(Step.add(visitAttributeMake(attributeMake, symbols)));
         }
-        return null;
     }
 
-    @Override
-    public SymbolTree visitValue(SoarParser.ValueContext ctx)
+    /**
+     * Visit the right hand side of an action. Variables are recorded as the nested variable name, constants are
+     * returned as a one node tree and function calls only record their arguments.
+     *
+     * @param value
+     * @return
+     */
+    private static SymbolTree visitValue(Value value, ProductionSymbols symbols)
     {
-        ParseTree node = ctx.children.get(0);
-
-        if (node instanceof SoarParser.VariableContext)
+        if (value.isVariable())
         {
-            nestedVariableName = node.getText();
+            symbols.nestedVariableName = value.text;
+            return null;
+        }
+        else if (value.isFunction())
+        {
+            value.arguments.forEach(argument -> visitValue(argument, symbols));
             return null;
         }
         else
         {
-            return node.accept(this);
+            return visitConstant(value, symbols);
         }
     }
 
-    @Override
-    public SymbolTree visitAttr_value_make(SoarParser.Attr_value_makeContext ctx)
+    private static SymbolTree visitAttributeMake(AttributeMake attributeMake, ProductionSymbols symbols)
     {
-        SymbolTree subtree = getTreeFromList(ctx.variable_or_sym_constant());
+        SymbolTree subtree = getTreeFromList(attributeMake.attributes);
 
-        nestedVariableName = null;
-        SymbolTree rightHandTree = ctx.value_make().accept(this);
+        symbols.nestedVariableName = null;
+        SymbolTree rightHandTree = visitValue(attributeMake.value, symbols);
 
-        if (nestedVariableName != null)
+        if (symbols.nestedVariableName != null && rightHandTree == null)
         {
-            if (rightHandTree == null)
+            if (!symbols.variables.containsKey(symbols.nestedVariableName))
             {
-                if (!currentVariableDictionary.containsKey(nestedVariableName))
-                {
-                    currentVariableDictionary.put(nestedVariableName, subtree.name);
-                }
-            }
-            else
-            {
-                ctx.value_make().accept(this).getChildren()
-                        .forEach(subtree::addChild);
+                symbols.variables.put(symbols.nestedVariableName, subtree.name);
             }
         }
 
         return subtree;
     }
-
-    @Override
-    public SymbolTree visitVariable_or_sym_constant(SoarParser.Variable_or_sym_constantContext ctx)
-    {
-        return new SymbolTree(ctx.getText());
-    }
-
-    @Override
-    public SymbolTree visitValue_make(SoarParser.Value_makeContext ctx)
-    {
-        return ctx.value().accept(this);
-    }
-
-    @Override
-    public SymbolTree defaultResult()
-    {
-        return null;
-    }
 }
@@ -0,0 +1,287 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Productions whose guard and assignment are the same but for their symbolic constants and integer literals, such as
+ * a proposal for each of several operators. Each family is written as one template, of the first production in it,
+ * with a parameter for every constant that differs between its members, and each member becomes an instance of that
+ * template with its own constants as arguments. Instance names do not change, so the system lists the instances in
+ * the same order and queries that name them still hold.
+ *
+ * Slots whose constants are the same in every member stay constants, and slots whose constants vary together share
+ * one parameter. true and false are never parameters, since a parameter is an int.
+ */
+class TemplateFamilies
+{
+    static final String PARAMETER_PREFIX = "param__";
+
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*|[0-9]+(\\.[0-9]+)?");
+    private static final char SLOT = '\u0001';
+
+    /**
+     * A production's fragment with its constants taken out
+     */
+    private static final class Shape
+    {
+        final String guard;
+        final String assignment;
+        final List<String> constants;
+
+        Shape(String guard, String assignment, List<String> constants)
+        {
+            this.guard = guard;
+            this.assignment = assignment;
+            this.constants = constants;
+        }
+    }
+
+    /**
+     * The template of a family
+     */
+    private static final class Family
+    {
+        final List<Integer> members = new ArrayList<>();
+        int parameterCount = 0;
+        String parameters = "";
+        TranslationCache.Fragment fragment;
+        int[] slotParameters;
+    }
+
+    private final Set<String> constants;
+    private final List<String> templates = new ArrayList<>();
+    private final List<TranslationCache.Fragment> fragments = new ArrayList<>();
+    private final List<Shape> shapes = new ArrayList<>();
+    private final List<Family> familyOf = new ArrayList<>();
+    private int familyCount = 0;
+
+    /**
+     * @param constants names of the symbolic constants
+     */
+    TemplateFamilies(Set<String> constants)
+    {
+        this.constants = constants;
+    }
+
+    /**
+     * Add the next production
+     *
+     * @param shareable whether the production may join a family; the goal production has a template of its own
+     */
+    void add(String template, TranslationCache.Fragment fragment, boolean shareable)
+    {
+        templates.add(template);
+        fragments.add(fragment);
+
+        if (shareable)
+        {
+            List<String> slots = new ArrayList<>();
+            shapes.add(new Shape(abstractConstants(fragment.guard, slots), abstractConstants(fragment.assignment, slots), slots));
+        }
+        else
+        {
+            shapes.add(null);
+        }
+    }
+
+    /**
+     * Find the families, once every production has been added
+     */
+    void group()
+    {
+        Map<String, Family> families = new LinkedHashMap<>();
+
+        for (int production = 0; production < shapes.size(); production++)
+        {
+            Shape shape = shapes.get(production);
+            Family family = null;
+
+            if (shape != null)
+            {
+                family = families.computeIfAbsent(shape.guard + '\u0000' + shape.assignment, s -> new Family());
+                family.members.add(production);
+            }
+            familyOf.add(family);
+        }
+
+        for (Family family : families.values())
+        {
+            if (family.members.size() > 1)
+            {
+                parameterise(family);
+                familyCount++;
+            }
+        }
+
+        for (int production = 0; production < familyOf.size(); production++)
+        {
+            if (familyOf.get(production) != null && familyOf.get(production).members.size() == 1)
+            {
+                familyOf.set(production, null);
+            }
+        }
+    }
+
+    /**
+     * @return the number of templates that stand for more than one production
+     */
+    int getFamilyCount()
+    {
+        return familyCount;
+    }
+
+    /**
+     * @return whether the production's template is written, as its own or as its family's
+     */
+    boolean hasTemplate(int production)
+    {
+        Family family = familyOf.get(production);
+        return family == null || family.members.get(0) == production;
+    }
+
+    /**
+     * @return the name of the template the production is an instance of
+     */
+    String getTemplate(int production)
+    {
+        Family family = familyOf.get(production);
+        return templates.get(family == null ? production : family.members.get(0));
+    }
+
+    /**
+     * @return the parameter declarations of the production's template, or "" if it has none
+     */
+    String getParameters(int production)
+    {
+        Family family = familyOf.get(production);
+        return family == null ? "" : family.parameters;
+    }
+
+    /**
+     * @return the guard and assignment of the production's template, in terms of its parameters
+     */
+    TranslationCache.Fragment getFragment(int production)
+    {
+        Family family = familyOf.get(production);
+        return family == null ? fragments.get(production) : family.fragment;
+    }
+
+    /**
+     * @return the arguments of the production's instance, such as "(move, 3)", or "()"
+     */
+    String getArguments(int production)
+    {
+        Family family = familyOf.get(production);
+
+        if (family == null)
+        {
+            return "()";
+        }
+
+        List<String> slots = shapes.get(production).constants;
+        String[] arguments = new String[family.parameterCount];
+
+        for (int slot = 0; slot < slots.size(); slot++)
+        {
+            if (family.slotParameters[slot] >= 0)
+            {
+                arguments[family.slotParameters[slot]] = slots.get(slot);
+            }
+        }
+        return "(" + String.join(", ", arguments) + ")";
+    }
+
+    /**
+     * Decide which slots become parameters and write the family's fragment in terms of them
+     */
+    private void parameterise(Family family)
+    {
+        Shape first = shapes.get(family.members.get(0));
+        int slotCount = first.constants.size();
+        Map<List<String>, Integer> parameters = new LinkedHashMap<>();
+        family.slotParameters = new int[slotCount];
+
+        for (int slot = 0; slot < slotCount; slot++)
+        {
+            List<String> values = new ArrayList<>();
+            for (int member : family.members)
+            {
+                values.add(shapes.get(member).constants.get(slot));
+            }
+
+            if (new HashSet<>(values).size() == 1)
+            {
+                family.slotParameters[slot] = -1;
+            }
+            else
+            {
+                family.slotParameters[slot] = parameters.computeIfAbsent(values, v -> parameters.size());
+            }
+        }
+
+        family.parameterCount = parameters.size();
+        StringJoiner declarations = new StringJoiner(", ");
+        for (int parameter = 0; parameter < parameters.size(); parameter++)
+        {
+            declarations.add("const int " + PARAMETER_PREFIX + parameter);
+        }
+        family.parameters = declarations.toString();
+
+        int[] next = {0};
+        String guard = fillSlots(first.guard, first.constants, family.slotParameters, next);
+        String assignment = fillSlots(first.assignment, first.constants, family.slotParameters, next);
+        family.fragment = new TranslationCache.Fragment(guard, assignment);
+    }
+
+    /**
+     * @param next index of the first slot in the text, advanced past its slots
+     * @return the text with each slot put back as its constant or as its parameter
+     */
+    private static String fillSlots(String text, List<String> constants, int[] slotParameters, int[] next)
+    {
+        StringBuilder filled = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            if (c != SLOT)
+            {
+                filled.append(c);
+                continue;
+            }
+
+            int slot = next[0]++;
+            filled.append(slotParameters[slot] < 0 ? constants.get(slot) : PARAMETER_PREFIX + slotParameters[slot]);
+        }
+        return filled.toString();
+    }
+
+    /**
+     * @param slots filled with the constants taken out, in order
+     * @return the text with each symbolic constant and integer literal replaced by a slot
+     */
+    private String abstractConstants(String text, List<String> slots)
+    {
+        StringBuilder shape = new StringBuilder(text.length());
+        Matcher tokens = TOKEN.matcher(text);
+        int end = 0;
+
+        while (tokens.find())
+        {
+            String token = tokens.group();
+            boolean integer = Character.isDigit(token.charAt(0)) && tokens.group(1) == null;
+
+            if (integer || constants.contains(token) && !token.equals("true") && !token.equals("false"))
+            {
+                shape.append(text, end, tokens.start()).append(SLOT);
+                slots.add(token);
+                end = tokens.end();
+            }
+        }
+        shape.append(text, end, text.length());
+        return shape.toString();
+    }
+}
@@ -0,0 +1,210 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of translated productions, so re-translating an agent after a small edit only rebuilds the
+ * productions that changed.
+ *
+ * A production's guard and assignment depend only on its own text and on the paths its variables resolve to in the
+ * symbol tree, so those are hashed into the key. Declarations, location ids and the system line are cheap and are
+ * always rebuilt. Each Soar file has its own cache file in the cache directory; entries that were not used by the
+ * last translation are dropped when it is saved.
+ *
+ * Lookups and insertions may come from several threads; open and save may not.
+ */
+class TranslationCache
+{
+    /**
+     * Bump whenever the translation of a production changes, so old caches are not reused
+     */
+    private static final int FORMAT_VERSION = 4;
+    private static final String EXTENSION = ".cache";
+
+    private final Path file;
+    private Map<String, Fragment> entries;
+    private final Map<String, Fragment> used = new ConcurrentHashMap<>();
+
+    /**
+     * The translated labels of one production's transition
+     */
+    static class Fragment
+    {
+        final String guard;
+        final String assignment;
+
+        Fragment(String guard, String assignment)
+        {
+            this.guard = guard;
+            this.assignment = assignment;
+        }
+    }
+
+    private TranslationCache(Path file, Map<String, Fragment> entries)
+    {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * A cache that only lives in memory, for translating the same agent again and again in one process
+     */
+    static TranslationCache inMemory()
+    {
+        return new TranslationCache(null, new HashMap<>());
+    }
+
+    /**
+     * Start another translation with the entries the last one used; the others are dropped
+     */
+    void next()
+    {
+        entries = new HashMap<>(used);
+        used.clear();
+    }
+
+    /**
+     * Open the cache of the given Soar file. A missing, unreadable or outdated cache file gives an empty cache.
+     */
+    static TranslationCache open(Path cacheDirectory, String soarSourceFile)
+    {
+        String sourcePath = new File(soarSourceFile).getAbsoluteFile().toPath().normalize().toString();
+        Path file = cacheDirectory.resolve(hash(sourcePath).substring(0, 16) + EXTENSION);
+        Map<String, Fragment> entries = new HashMap<>();
+
+        if (Files.isRegularFile(file))
+        {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+            {
+                if (in.readInt() == FORMAT_VERSION)
+                {
+                    int size = in.readInt();
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        entries.put(readString(in), new Fragment(readString(in), readString(in)));
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.println("Ignoring unreadable translation cache " + file + ": " + e);
+                entries.clear();
+            }
+        }
+        return new TranslationCache(file, entries);
+    }
+
+    /**
+     * @param variablePaths the production's variables and the symbol tree paths they resolve to
+     * @param context anything else the translation depends on, such as the symbol numbering, or null
+     * @return the key of the production in this cache
+     */
+    static String key(Production production, Map<String, String> variablePaths, String context)
+    {
+        StringBuilder content = new StringBuilder(production.source);
+
+        if (context != null)
+        {
+            content.append('\0').append(context);
+        }
+
+        for (Map.Entry<String, String> entry : new TreeMap<>(variablePaths).entrySet())
+        {
+            content.append('\0').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return hash(content.toString());
+    }
+
+    /**
+     * @return the cached fragment for the key, or null
+     */
+    Fragment get(String key)
+    {
+        Fragment fragment = entries.get(key);
+
+        if (fragment != null)
+        {
+            used.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    void put(String key, Fragment fragment)
+    {
+        used.put(key, fragment);
+    }
+
+    /**
+     * Write the entries used since the cache was opened, unless it only lives in memory. The file is replaced
+     * atomically, so a failed or concurrent run never leaves a half written cache.
+     */
+    void save() throws IOException
+    {
+        if (file == null)
+        {
+            return;
+        }
+
+        Files.createDirectories(file.getParent());
+
+        AtomicFile.write(file, stream ->
+        {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(used.size());
+
+            for (Map.Entry<String, Fragment> entry : used.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue().guard);
+                writeString(out, entry.getValue().assignment);
+            }
+        });
+    }
+
+    static String hash(String text)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Strings are length prefixed rather than written with writeUTF, which is limited to 64K
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
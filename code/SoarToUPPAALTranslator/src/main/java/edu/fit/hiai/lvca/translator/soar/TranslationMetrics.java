@@ -0,0 +1,186 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a translation goes and how large its model is: the wall time and allocated bytes of each phase,
+ * and counts of what the model holds, written as JSON to follow trends across revisions of an agent.
+ *
+ * Allocation is counted per thread by the JVM. Files are lexed and parsed in parallel, each on one thread, so the
+ * lex and parse phases are the sums over the files of their time and allocation, and may add up to more than the
+ * wall time of loading. For the other phases the allocation of every live thread is counted, which misses the little
+ * that threads ending during a phase allocated. Allocated bytes are -1 on a JVM that does not count them.
+ */
+class TranslationMetrics
+{
+    static final String LEX = "lex";
+    static final String PARSE = "parse";
+    static final String SYMBOL_VISIT = "symbolVisit";
+    static final String DECLARATION = "declaration";
+    static final String TEMPLATES = "templates";
+    static final String SAVE = "save";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+    private String source;
+    private long loadNanos;
+    private long totalNanos;
+    private String phase;
+    private long phaseStart;
+    private long phaseAllocatedBytes;
+
+    final LongAdder templates = new LongAdder();
+    final LongAdder locations = new LongAdder();
+    final LongAdder edges = new LongAdder();
+    final LongAdder guardTerms = new LongAdder();
+    final LongAdder guardCharacters = new LongAdder();
+
+    TranslationMetrics()
+    {
+        for (String name : new String[]{LEX, PARSE, SYMBOL_VISIT, DECLARATION, TEMPLATES, SAVE})
+        {
+            phases.put(name, new long[]{0, 0});
+        }
+    }
+
+    /**
+     * Start timing a phase of the translating thread. Phases do not nest.
+     */
+    void begin(String name)
+    {
+        phase = name;
+        phaseAllocatedBytes = allocatedBytes();
+        phaseStart = System.nanoTime();
+    }
+
+    void end()
+    {
+        long nanos = System.nanoTime() - phaseStart;
+        long allocated = allocatedBytes();
+        add(phase, nanos, allocated < 0 ? -1 : allocated - phaseAllocatedBytes);
+        phase = null;
+    }
+
+    /**
+     * Add time and allocation measured elsewhere to a phase
+     */
+    synchronized void add(String name, long nanos, long allocatedBytes)
+    {
+        long[] totals = phases.get(name);
+        totals[0] += nanos;
+        totals[1] = allocatedBytes < 0 || totals[1] < 0 ? -1 : totals[1] + allocatedBytes;
+    }
+
+    synchronized void count(String name, long value)
+    {
+        counts.put(name, value);
+    }
+
+    void setSource(String source)
+    {
+        this.source = source;
+    }
+
+    void setLoadNanos(long loadNanos)
+    {
+        this.loadNanos = loadNanos;
+    }
+
+    void setTotalNanos(long totalNanos)
+    {
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return bytes allocated so far by the calling thread, or -1 if the JVM does not count them
+     */
+    static long threadAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads = getAllocationCounter();
+        return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return bytes allocated so far by all live threads, or -1 if the JVM does not count them
+     */
+    private static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads = getAllocationCounter();
+
+        if (threads == null)
+        {
+            return -1;
+        }
+
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            // -1 for a thread that ended since its id was read
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationCounter()
+    {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+            {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    synchronized void write(Writer out) throws IOException
+    {
+        counts.put("templates", templates.sum());
+        counts.put("locations", locations.sum());
+        counts.put("edges", edges.sum());
+        counts.put("guardTerms", guardTerms.sum());
+        counts.put("guardCharacters", guardCharacters.sum());
+
+        out.write("{\n");
+        out.write("  \"source\": " + VerificationRunner.quote(String.valueOf(source)) + ",\n");
+        out.write("  \"totalMillis\": " + millis(totalNanos) + ",\n");
+        out.write("  \"loadMillis\": " + millis(loadNanos) + ",\n");
+        out.write("  \"phases\": {");
+
+        String separator = "\n";
+        for (Map.Entry<String, long[]> entry : phases.entrySet())
+        {
+            out.write(separator + "    " + VerificationRunner.quote(entry.getKey())
+                    + ": {\"millis\": " + millis(entry.getValue()[0])
+                    + ", \"allocatedBytes\": " + entry.getValue()[1] + "}");
+            separator = ",\n";
+        }
+        out.write("\n  },\n");
+        out.write("  \"counts\": {");
+
+        separator = "\n";
+        for (Map.Entry<String, Long> entry : counts.entrySet())
+        {
+            out.write(separator + "    " + VerificationRunner.quote(entry.getKey()) + ": " + entry.getValue());
+            separator = ",\n";
+        }
+        out.write("\n  }\n}\n");
+        out.flush();
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
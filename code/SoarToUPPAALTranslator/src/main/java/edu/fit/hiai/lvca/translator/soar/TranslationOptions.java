@@ -0,0 +1,59 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How to translate a Soar file. The defaults translate every production into its own template, without a cache.
+ */
+class TranslationOptions
+{
+    /**
+     * Where translated productions are kept between runs, or null to translate everything
+     */
+    Path cacheDirectory = null;
+
+    /**
+     * Cache to use instead of one opened from the cache directory, kept by whoever translates the same agent many
+     * times, or null
+     */
+    TranslationCache cache = null;
+
+    /**
+     * Filled in with the parse statistics of the file, or null
+     */
+    ParseStatistics statistics = null;
+
+    /**
+     * Filled in with the time and allocation of each phase and the size of the model, or null
+     */
+    TranslationMetrics metrics = null;
+
+    /**
+     * Leave out the productions that can never fire, other than the goal production and those the queries name
+     */
+    boolean removeDeadProductions = false;
+
+    /**
+     * Filled in with the names of the productions left out because they can never fire, or null
+     */
+    List<String> deadProductions = null;
+
+    /**
+     * Identifiers in the queries to verify, to translate only their cone of influence, or null to translate every
+     * production
+     */
+    Set<String> queryNames = null;
+
+    /**
+     * Encode all productions in one template instead of one template per production
+     */
+    boolean singleProcess = false;
+
+    /**
+     * Number the symbols of each attribute domain from 1 and write which symbol each value of each variable stands
+     * for to this file, or null to number all symbols together
+     */
+    Path symbolMap = null;
+}
@@ -0,0 +1,183 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Translate Soar agents to UPPAAL models from within another program. A Translator holds only its settings and
+ * never changes, so one instance can be shared by any number of threads; the with methods return a copy with one
+ * setting changed. Nothing is written anywhere but to the given output, and to the cache directory if one is set.
+ *
+ * An agent is loaded from a file, with the files it sources, or from text, and can be translated any number of
+ * times, with different settings, without being parsed again. Each thread lexes and parses with its own lexer and
+ * parser, reused from one agent to the next, and the DFA caches that make parsing fast are shared by all of them.
+ */
+public final class Translator
+{
+    private final Path cacheDirectory;
+    private final Set<String> queryNames;
+    private final boolean singleProcess;
+
+    /**
+     * Productions loaded from Soar source, ready to translate
+     */
+    public static final class Agent
+    {
+        private final String name;
+        private final List<Production> productions;
+
+        private Agent(String name, List<Production> productions)
+        {
+            this.name = name;
+            this.productions = Collections.unmodifiableList(productions);
+        }
+
+        /**
+         * @return the file the agent was loaded from
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the names of the agent's productions, in load order
+         */
+        public List<String> getProductionNames()
+        {
+            return productions.stream().map(production -> production.name).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A translated UPPAAL model
+     */
+    public static final class Model
+    {
+        private final byte[] xml;
+
+        private Model(byte[] xml)
+        {
+            this.xml = xml;
+        }
+
+        /**
+         * @return the model as UTF-8 encoded XML
+         */
+        public byte[] getBytes()
+        {
+            return xml.clone();
+        }
+
+        public void writeTo(OutputStream out) throws IOException
+        {
+            out.write(xml);
+        }
+
+        /**
+         * @return the model's XML
+         */
+        @Override
+        public String toString()
+        {
+            return new String(xml, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A translator with the default settings: every production in its own template, without a cache
+     */
+    public Translator()
+    {
+        this(null, null, false);
+    }
+
+    private Translator(Path cacheDirectory, Set<String> queryNames, boolean singleProcess)
+    {
+        this.cacheDirectory = cacheDirectory;
+        this.queryNames = queryNames;
+        this.singleProcess = singleProcess;
+    }
+
+    /**
+     * @param cacheDirectory where translated productions are kept between translations, or null for no cache
+     */
+    public Translator withCacheDirectory(Path cacheDirectory)
+    {
+        return new Translator(cacheDirectory, queryNames, singleProcess);
+    }
+
+    /**
+     * @param queryNames identifiers of the queries to verify, to translate only their cone of influence, or null to
+     * translate every production
+     */
+    public Translator withQueryNames(Set<String> queryNames)
+    {
+        return new Translator(cacheDirectory, queryNames == null ? null : Collections.unmodifiableSet(new HashSet<>(queryNames)), singleProcess);
+    }
+
+    /**
+     * @param singleProcess encode all productions in one template rather than one template each
+     */
+    public Translator withSingleProcess(boolean singleProcess)
+    {
+        return new Translator(cacheDirectory, queryNames, singleProcess);
+    }
+
+    /**
+     * Load a Soar file and the files it sources
+     */
+    public Agent load(Path soarFile) throws IOException
+    {
+        return new Agent(soarFile.toString(), SoarSourceLoader.load(soarFile.toString(), null));
+    }
+
+    /**
+     * Load Soar source given as text. Its source commands are resolved from the working directory.
+     */
+    public Agent load(String soarSource) throws IOException
+    {
+        Path directory = Paths.get("").toAbsolutePath();
+        return new Agent(directory.resolve(SoarSourceLoader.TEXT_NAME).toString(), SoarSourceLoader.load(soarSource, directory, null));
+    }
+
+    public void translate(Agent agent, OutputStream out) throws IOException
+    {
+        // Options are only read during a translation, but each gets its own so that none is ever shared
+        TranslationOptions options = new TranslationOptions();
+        options.cacheDirectory = cacheDirectory;
+        options.queryNames = queryNames == null ? null : new HashSet<>(queryNames);
+        options.singleProcess = singleProcess;
+
+        SoarTranslator.writeUPPAAL(agent.productions, agent.name, out, options, new TranslationMetrics());
+    }
+
+    public Model translate(Agent agent) throws IOException
+    {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        translate(agent, xml);
+        return new Model(xml.toByteArray());
+    }
+
+    /**
+     * Load and translate a Soar file
+     */
+    public Model translate(Path soarFile) throws IOException
+    {
+        return translate(load(soarFile));
+    }
+
+    /**
+     * Load and translate Soar source given as text
+     */
+    public Model translate(String soarSource) throws IOException
+    {
+        return translate(load(soarSource));
+    }
+}
@@ -1,36 +1,113 @@
 package edu.fit.hiai.lvca.translator.soar;
 
-import com.uppaal.model.core2.*;
-import edu.fit.hiai.lvca.antlr4.SoarBaseVisitor;
-import edu.fit.hiai.lvca.antlr4.SoarParser;
-import org.antlr.v4.runtime.RuleContext;
-import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.RuleNode;
-import org.antlr.v4.runtime.tree.TerminalNode;
-
-import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-public class UPPAALSemanticVisitor extends SoarBaseVisitor<Node> {
+public class UPPAALSemanticVisitor {
 
     static final String LITERAL_STRING_PREFIX = "literal_string__";
     private final Set<String> _globals;
     private final Set<String> _booleanGlobals;
     private final Map<String, Map<String, String>> _variableDictionary;
-    private SoarParser.Soar_productionContext _goalProductionContext;
+    private Production _goalProduction;
     private Integer _locationCounter = 0;
-    Document ourDocument = new Document(new PrototypeDocument());
-    private Template lastTemplate = null;
+    private static final Expression.Name NIL = new Expression.Name("nil");
+    private static final Expression.Name TRUE = new Expression.Name("true");
+    private static final Expression.Name FALSE = new Expression.Name("false");
+    private static final Set<String> ARITHMETIC_OPERATORS = new HashSet<>(Arrays.asList("+", "-", "*", "/"));
+    private static final int TEMPLATE_BATCH_SIZE = 1024;
+    private static final ThreadLocal<TemplateWriter> TEMPLATE_WRITER = ThreadLocal.withInitial(TemplateWriter::new);
+    private UPPAALStreamWriter _writer;
     private final Set<String> _templateNames = new HashSet<>();
+    private final Map<String, String> _instances = new HashMap<>();
+    private final TranslationCache _cache;
+    private Set<String> _queryNames = null;
+    private Set<String> _declaredNames = null;
+    private boolean _singleProcess = false;
+    private boolean _enumerateSymbols = false;
+    private boolean _removeDeadProductions = false;
+    private SymbolEncoding _symbols = null;
+    private ExpressionSimplifier _simplifier = null;
+    private List<String> _deadProductions = Collections.emptyList();
+    private TranslationMetrics _metrics = new TranslationMetrics();
 
     public UPPAALSemanticVisitor(Set<String> stringAttributeNames, Map<String, Map<String, String>> variablesPerProductionContext, Set<String> boolAttributeNames)
+    {
+        this(stringAttributeNames, variablesPerProductionContext, boolAttributeNames, null);
+    }
+
+    /**
+     * @param cache translated productions to reuse and to add to, or null to translate everything
+     */
+    UPPAALSemanticVisitor(Set<String> stringAttributeNames, Map<String, Map<String, String>> variablesPerProductionContext, Set<String> boolAttributeNames, TranslationCache cache)
     {
         _globals = stringAttributeNames;
         _booleanGlobals = boolAttributeNames;
         _variableDictionary = variablesPerProductionContext;
+        _cache = cache;
+    }
+
+    /**
+     * Translate only the cone of influence of the given names: the productions that can affect the variables they
+     * name, or the template instances (e.g. "production_0") whose locations they refer to, and the goal production
+     *
+     * @param queryNames the identifiers in the queries to verify, or null to translate every production
+     */
+    void setQueryNames(Set<String> queryNames)
+    {
+        _queryNames = queryNames;
+    }
+
+    /**
+     * @param singleProcess encode all productions in one template rather than one template each
+     */
+    void setSingleProcess(boolean singleProcess)
+    {
+        _singleProcess = singleProcess;
+    }
+
+    /**
+     * @param enumerateSymbols number the symbols of each attribute domain from 1 rather than all symbols together
+     */
+    void setEnumerateSymbols(boolean enumerateSymbols)
+    {
+        _enumerateSymbols = enumerateSymbols;
+    }
+
+    /**
+     * @param removeDeadProductions leave out the productions that can never fire
+     */
+    void setRemoveDeadProductions(boolean removeDeadProductions)
+    {
+        _removeDeadProductions = removeDeadProductions;
+    }
+
+    /**
+     * @param metrics filled in with the time of each phase and the size of the model
+     */
+    void setMetrics(TranslationMetrics metrics)
+    {
+        _metrics = metrics;
+    }
+
+    /**
+     * @return the symbol numbering of the last translation, or null if symbols were numbered together
+     */
+    SymbolEncoding getSymbolEncoding()
+    {
+        return _symbols;
+    }
+
+    /**
+     * @return the names of the productions the last translation left out because they can never fire
+     */
+    List<String> getDeadProductions()
+    {
+        return _deadProductions;
     }
 
     private String getCounter() {
@@ -43,146 +120,677 @@ public class UPPAALSemanticVisitor extends SoarBaseVisitor<Node> {
         return str.replace("-", "_").replace("*", "_");
     }
 
-    private void getDeclarationElement()
+    /**
+     * Declare the state variables, each with the smallest range that holds every value the productions assign to it,
+     * and the symbolic constants
+     *
+     * @param synchronisation declarations of whatever runs the productions, after the variables and constants
+     */
+    private void getDeclarationElement(List<Production> productions, String synchronisation) throws XMLStreamException
     {
-        _globals.remove("nil"); // added later so that nil always equals 0
+        StringBuilder vars = new StringBuilder();
 
-        String vars = "";
+        Map<String, Integer> constants = _symbols == null ? getConstants() : _symbols.getConstants();
+        ValueDomains domains = getValueDomains(productions, constants);
+        int variables = 0;
 
-        final AtomicInteger i = new AtomicInteger(1);
+        for (String var : _globals)
+        {
+            if (var.startsWith("state") && isDeclared(simplifiedString(var)))
+            {
+                String name = simplifiedString(var);
+                vars.append(domains.typeOf(name)).append(" ").append(name).append("; \n");
+                variables++;
+            }
+        }
 
-        vars += _globals
-                .stream()
-                .filter(var -> var.startsWith("state"))
-                .map(this::simplifiedString)
-                .map(var -> "int " + var + "; \n")
-                .collect(Collectors.joining());
+        for (String var : _booleanGlobals)
+        {
+            if (!isDeclared(simplifiedString(var)))
+            {
+                continue;
+            }
+            vars.append("bool ").append(simplifiedString(var)).append("; \n");
+            variables++;
+        }
 
-        vars += _booleanGlobals
-                .stream()
-                .map(this::simplifiedString)
-                .map(var -> "bool "+ var + "; \n")
-                .collect(Collectors.joining());
+        vars.append("const int nil = 0;\n");
+
+        for (Map.Entry<String, Integer> constant : constants.entrySet())
+        {
+            if (constant.getValue() != 0)
+            {
+                vars.append("const int ").append(constant.getKey()).append(" = ").append(constant.getValue()).append("; \n");
+            }
+        }
+
+        _metrics.count("variables", variables);
+        _metrics.count("constants", constants.size());
+
+        vars.append(synchronisation);
+
+        _writer.writeDeclaration(vars.toString());
+    }
+
+    /**
+     * @return every symbol of the agent, numbered from 1 in the order of the symbol table, and nil
+     */
+    private Map<String, Integer> getConstants()
+    {
+        _globals.remove("nil"); // added here so that nil always equals 0
+
+        Map<String, Integer> constants = new LinkedHashMap<>();
+        constants.put(NIL.name, 0);
+
+        int i = 1;
 
-        vars += "const int nil = 0;\n";
+        for (String var : _globals)
+        {
+            if (!var.startsWith("state"))
+            {
+                constants.put(simplifiedString(var), i++);
+            }
+        }
+        return constants;
+    }
+
+    private ValueDomains getValueDomains(List<Production> productions, Map<String, Integer> constants)
+    {
+        ValueDomains domains = new ValueDomains(constants);
+        productions.stream()
+                .filter(production -> !ExpressionSimplifier.isUnsatisfiable(getGuard(production)))
+                .flatMap(production -> getAssignments(production).stream())
+                .forEach(domains::add);
+        return domains;
+    }
+
+    /**
+     * Number the symbols of each attribute domain, from the guards and assignments of the productions
+     */
+    private void enumerateSymbols(List<Production> productions)
+    {
+        Set<String> symbols = getConstants().keySet();
+        Set<String> booleans = _booleanGlobals.stream().map(this::simplifiedString).collect(Collectors.toSet());
+        _symbols = new SymbolEncoding(symbols, booleans);
+
+        for (Production production : productions)
+        {
+            _symbols.add(visitConditions(production));
+            visitActions(production).forEach(_symbols::add);
+        }
+        _symbols.number();
+    }
+
+    /**
+     * @return the expression with symbols named as in the declaration
+     */
+    private Expression encode(Expression expression)
+    {
+        return _symbols == null ? expression : _symbols.encode(expression);
+    }
+
+    /**
+     * Set up the simplifier, once the constants are known
+     */
+    private void setUpSimplifier()
+    {
+        Set<String> constants = new HashSet<>(_symbols == null ? getConstants().keySet() : _symbols.getConstants().keySet());
+        constants.add(TRUE.name);
+        constants.add(FALSE.name);
+        _simplifier = new ExpressionSimplifier(constants);
+    }
+
+    /**
+     * @return the production's guard with symbols named as in the declaration, simplified
+     */
+    private Expression.Conjunction getGuard(Production production)
+    {
+        return _simplifier.simplify((Expression.Conjunction) encode(visitConditions(production)));
+    }
 
-        vars += _globals
+    /**
+     * @return the production's assignments with symbols named as in the declaration, simplified
+     */
+    private List<Expression.Assignment> getAssignments(Production production)
+    {
+        return visitActions(production)
                 .stream()
-                .filter(var -> !var.startsWith("state"))
-                .map(this::simplifiedString)
-                .map(var -> "const int " + var + " = " + i.getAndIncrement() + "; \n")
-                .collect(Collectors.joining());
+                .map(assignment -> _simplifier.simplify((Expression.Assignment) encode(assignment)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The scheduler's guard: keep running until the goal production's conditions hold
+     */
+    private String getGoalGuard()
+    {
+        return new Expression.Negation(getGuard(_goalProduction)).toString();
+    }
+
+    private boolean isDeclared(String variable)
+    {
+        return _declaredNames == null || _declaredNames.contains(variable);
+    }
+
+    /**
+     * @return which variables each production reads and writes, in production order
+     */
+    DependencyGraph getDependencyGraph(List<Production> productions)
+    {
+        Set<String> variables = new HashSet<>();
+        _globals.stream().filter(var -> var.startsWith("state")).map(this::simplifiedString).forEach(variables::add);
+        _booleanGlobals.stream().map(this::simplifiedString).forEach(variables::add);
+
+        DependencyGraph graph = new DependencyGraph(variables);
+
+        for (Production production : productions)
+        {
+            Set<String> productionReads = new HashSet<>();
+            Set<String> productionWrites = new HashSet<>();
+            visitConditions(production).addNames(productionReads);
+
+            for (Expression.Assignment assignment : visitActions(production))
+            {
+                assignment.value.addNames(productionReads);
+                productionWrites.add(assignment.variable.name);
+            }
+            graph.addProduction(production.name, simplifiedString(production.name), productionReads, productionWrites);
+        }
+        return graph;
+    }
+
+    /**
+     * @return the productions that can fire, in their original order, with the goal production and the productions
+     * whose templates the queries name, or all of them unless dead productions are to be left out
+     */
+    private List<Production> removeDeadProductions(List<Production> productions)
+    {
+        _deadProductions = new ArrayList<>();
+
+        if (!_removeDeadProductions)
+        {
+            return productions;
+        }
+
+        Map<String, Integer> constants = new HashMap<>(_symbols == null ? getConstants() : _symbols.getConstants());
+        constants.put(TRUE.name, 1);
+        constants.put(FALSE.name, 0);
+        DeadProductions dead = new DeadProductions(constants);
 
-        vars += "broadcast chan Run_Rule;\n";
+        for (String var : _globals)
+        {
+            if (var.startsWith("state") && isDeclared(simplifiedString(var)))
+            {
+                dead.addVariable(simplifiedString(var));
+            }
+        }
+
+        for (String var : _booleanGlobals)
+        {
+            if (isDeclared(simplifiedString(var)))
+            {
+                dead.addVariable(simplifiedString(var));
+            }
+        }
+
+        for (Production production : productions)
+        {
+            dead.addProduction(getGuard(production), getAssignments(production));
+        }
+        dead.compute();
 
+        List<Production> live = new ArrayList<>();
 
-        ourDocument.setProperty("declaration", vars);
+        for (int i = 0; i < productions.size(); i++)
+        {
+            Production production = productions.get(i);
+            String template = simplifiedString(production.name);
+
+            if (!dead.isDead(i) || production.halts || (_queryNames != null && (_queryNames.contains(template) || _queryNames.contains(template + "_0"))))
+            {
+                live.add(production);
+            }
+            else
+            {
+                _deadProductions.add(production.name);
+            }
+        }
+        _metrics.count("deadProductions", _deadProductions.size());
+        return live;
     }
 
-    private void getSystemElement()
+    /**
+     * @return the productions in the cone of influence of the query names, in their original order
+     */
+    private List<Production> slice(List<Production> productions)
     {
-        List<String[]> compoundNames = _templateNames.stream().map(name -> new String[]{name + "_0", name}).collect(Collectors.toList());
-        String goalTemplateName = simplifiedString(_goalProductionContext.sym_constant().getText());
-        String system = "";
-        system += compoundNames.stream().map(name -> name[0] + " = " + name[1] + "(); \n").collect(Collectors.joining());
-        system += "schd = scheduler();\n";
-        system += "goal = " + goalTemplateName + "(); \n";
-        system += "system " + compoundNames.stream().map(cName -> cName[0]).collect(Collectors.joining(", ")) + ", goal, schd;";
+        DependencyGraph graph = getDependencyGraph(productions);
+        ConeOfInfluence cone = new ConeOfInfluence();
+
+        for (int i = 0; i < graph.size(); i++)
+        {
+            cone.addProduction(graph.getReads(i), graph.getWrites(i));
+        }
 
-        ourDocument.setProperty("system", system);
+        for (int i = 0; i < productions.size(); i++)
+        {
+            Production production = productions.get(i);
+            String template = graph.getTemplate(i);
+
+            if (production.halts || _queryNames.contains(template) || _queryNames.contains(template + "_0"))
+            {
+                cone.addProduction(i);
+            }
+        }
+        _queryNames.forEach(cone::addVariable);
+
+        // A production in the cone may also assign variables outside it, which still have to be declared
+        _declaredNames = new HashSet<>(cone.getVariables());
+        List<Production> sliced = new ArrayList<>();
+
+        for (int i = 0; i < productions.size(); i++)
+        {
+            if (cone.contains(i))
+            {
+                sliced.add(productions.get(i));
+                _declaredNames.addAll(graph.getWrites(i));
+            }
+        }
+        return sliced;
     }
 
-    @Override
-    public Node visitSoar(SoarParser.SoarContext ctx) {
+    private void getSystemElement() throws XMLStreamException
+    {
+        String goalTemplateName = simplifiedString(_goalProduction.name);
+        StringBuilder system = new StringBuilder();
+
+        for (String name : _templateNames)
+        {
+            system.append(name).append("_0 = ").append(_instances.getOrDefault(name, name + "()")).append("; \n");
+        }
+        system.append("schd = scheduler();\n");
+        system.append("goal = ").append(goalTemplateName).append("(); \n");
+        system.append("system ");
+
+        for (String name : _templateNames)
+        {
+            system.append(name).append("_0, ");
+        }
+        system.append("goal, schd;");
+
+        _writer.writeSystem(system.toString());
+    }
+
+    /**
+     * Translate the productions and stream the UPPAAL model to the given output.
+     *
+     * Templates are independent of each other, so they are generated in parallel, a batch at a time to bound memory,
+     * and then written in production order. Productions that differ only in their constants share one template with
+     * parameters, and each is an instance of it with its own constants. Location ids follow from a production's
+     * position, which keeps the output identical to a serial translation. If query names are set, only the
+     * productions in their cone of influence are translated, and if asked, productions that can never fire are left
+     * out.
+     *
+     * @throws IllegalArgumentException if no production halts, before anything is written
+     */
+    public void visitSoar(List<Production> productions, OutputStream out) throws XMLStreamException {
+        requireGoal(productions);
+
+        _writer = new UPPAALStreamWriter(out);
+        _metrics.begin(TranslationMetrics.DECLARATION);
+
+        List<Production> sliced = _queryNames == null ? productions : slice(productions);
+
+        if (_enumerateSymbols) {
+            enumerateSymbols(sliced);
+        }
+        setUpSimplifier();
+        List<Production> translated = removeDeadProductions(sliced);
+        _metrics.count("translatedProductions", translated.size());
+
+        if (_singleProcess) {
+            _metrics.end();
+            visitProductionSystem(translated);
+            return;
+        }
+
+        getDeclarationElement(translated, "broadcast chan Run_Rule;\n");
+        _metrics.end();
+        _metrics.begin(TranslationMetrics.TEMPLATES);
 
-        getDeclarationElement();
+        TemplateFamilies families = getTemplateFamilies(translated);
 
-        ctx.soar_production().forEach(sp -> sp.accept(this));
+        for (int from = 0; from < translated.size(); from += TEMPLATE_BATCH_SIZE) {
+            int to = Math.min(from + TEMPLATE_BATCH_SIZE, translated.size());
+
+            List<String> templates = IntStream.range(from, to)
+                    .parallel()
+                    .filter(families::hasTemplate)
+                    .mapToObj(i -> visitProduction(families.getTemplate(i), families.getParameters(i), families.getFragment(i), 2 * i))
+                    .collect(Collectors.toList());
+
+            for (String template : templates) {
+                _writer.writeTemplates(template);
+            }
+        }
+
+        for (int i = 0; i < translated.size(); i++) {
+            Production production = translated.get(i);
+            if (production.halts) {
+                _goalProduction = production;
+            }
+            _templateNames.add(simplifiedString(production.name));
+            _instances.put(simplifiedString(production.name), families.getTemplate(i) + families.getArguments(i));
+        }
+        _locationCounter = 2 * translated.size();
 
         getScheduler();
 
         getSystemElement();
+        _metrics.count("processes", _templateNames.size() + 2);
+        _metrics.end();
+    }
 
+    /**
+     * Write every production into one template. A Run_Rule broadcast fires, all at once, every production whose guard
+     * holds and that did not fire in the previous round: guards are evaluated first and assignments are then made in
+     * the order the system lists the receivers. That whole round is one function here, so a round is one transition
+     * and the only state besides the variables is which productions fired last.
+     */
+    private void visitProductionSystem(List<Production> productions) throws XMLStreamException {
+        _metrics.begin(TranslationMetrics.TEMPLATES);
+        List<Production> order = getSystemOrder(productions);
+
+        List<TranslationCache.Fragment> fragments = order
+                .parallelStream()
+                .map(this::getFragment)
+                .collect(Collectors.toList());
+
+        fragments.forEach(fragment -> countGuard(fragment.guard));
+        String runRules = getRunRules(fragments);
+        _metrics.end();
+
+        _metrics.begin(TranslationMetrics.DECLARATION);
+        getDeclarationElement(productions, runRules);
+        _metrics.end();
+
+        _metrics.begin(TranslationMetrics.TEMPLATES);
+        String startId = getCounter();
+        String runId = getCounter();
+        String goalGuard = getGoalGuard();
+
+        _writer.startTemplate("production_system");
+        _writer.writeLocation(startId, "Start", false);
+        _writer.writeLocation(runId, "Run", true);
+        _writer.writeInit(startId);
+        _writer.writeTransition(startId, runId, null, null, "run_rules()");
+        _writer.writeTransition(runId, runId, goalGuard, null, "run_rules()");
+        _writer.endTemplate();
+        countTemplate(2, 2);
+        countGuard(goalGuard);
+
+        _writer.writeSystem("rules = production_system();\nsystem rules;");
+        _metrics.count("processes", 1);
+        _metrics.end();
+    }
 
-        try {
-            ourDocument.save("sampledoc.xml");
-        } catch (IOException er) {
-            er.printStackTrace(System.err);
+    private void countTemplate(int locations, int edges) {
+        _metrics.templates.increment();
+        _metrics.locations.add(locations);
+        _metrics.edges.add(edges);
+    }
+
+    /**
+     * Add a guard to the total guard size, in terms and in characters
+     */
+    private void countGuard(String guard) {
+        if (guard != null && !guard.isEmpty()) {
+            _metrics.guardTerms.add(guard.split(" && ").length);
+            _metrics.guardCharacters.add(guard.length());
         }
+    }
 
-        return null;
+    /**
+     * The goal template is made from the production that halts, so there is no network without one
+     */
+    private static void requireGoal(List<Production> productions) {
+        if (productions.stream().noneMatch(production -> production.halts)) {
+            throw new IllegalArgumentException("No (halt) production, which the goal template is made from");
+        }
     }
 
-    @Override
-    public Node visitSoar_production(SoarParser.Soar_productionContext ctx) {
-        if (ctx.getText().contains("(halt)")) {
-            _goalProductionContext = ctx;
+    /**
+     * Find the goal production and the template names, and put the productions in the order in which the system
+     * declaration lists their instances, which is the order in which a broadcast makes their assignments: every
+     * production's instance, then the goal production's second instance
+     */
+    private List<Production> getSystemOrder(List<Production> productions) {
+        Map<String, Production> templates = new HashMap<>();
+
+        for (Production production : productions) {
+            if (production.halts) {
+                _goalProduction = production;
+            }
+            _templateNames.add(simplifiedString(production.name));
+            templates.put(simplifiedString(production.name), production);
         }
 
-        String runStateID = getCounter();
-        String startStateID = getCounter();
+        List<Production> order = new ArrayList<>();
+        for (String name : _templateNames) {
+            order.add(templates.get(name));
+        }
+        order.add(_goalProduction);
+        return order;
+    }
 
-        Template currentTemplate = makeTemplate(simplifiedString(ctx.sym_constant().getText()));
-        _templateNames.add(getText(currentTemplate, "name"));
+    /**
+     * The network that visitSoar would write, with one template per production, ready to be explored without UPPAAL
+     */
+    ReachabilityChecker getReachabilityChecker(List<Production> productions) {
+        requireGoal(productions);
+        List<Production> sliced = _queryNames == null ? productions : slice(productions);
 
-        Location runLocation = makeLocation(currentTemplate, "Run", runStateID, false, false);
+        if (_enumerateSymbols) {
+            enumerateSymbols(sliced);
+        }
+        setUpSimplifier();
+        List<Production> translated = removeDeadProductions(sliced);
 
-        Location startLocation = makeLocation(currentTemplate, "Start", startStateID, true, true);
+        Map<String, Integer> constants = _symbols == null ? getConstants() : _symbols.getConstants();
+        ValueDomains domains = getValueDomains(translated, constants);
+        ReachabilityChecker checker = new ReachabilityChecker(constants);
 
-        makeEdge(currentTemplate, runLocation, startLocation, "Run_Rule?", null, null);
+        for (String var : _globals) {
+            String name = simplifiedString(var);
+            if (var.startsWith("state") && isDeclared(name)) {
+                checker.addInteger(name, domains.rangeOf(name));
+            }
+        }
 
-        String guard = (String) ctx.condition_side().accept(this).getProperty("name").getValue();
-        String assignment = (String) ctx.action_side().accept(this).getProperty("name").getValue();
-        makeEdge(currentTemplate, startLocation, runLocation, "Run_Rule?", guard, assignment);
+        for (String var : _booleanGlobals) {
+            String name = simplifiedString(var);
+            if (isDeclared(name)) {
+                checker.addBoolean(name);
+            }
+        }
 
-        return null;
+        List<Production> order = getSystemOrder(translated);
+
+        for (int i = 0; i < order.size(); i++) {
+            Production production = order.get(i);
+            String instance = i == order.size() - 1 ? "goal" : simplifiedString(production.name) + "_0";
+            checker.addProcess(instance, production.name, getGuard(production), getAssignments(production));
+        }
+        checker.setGoal(getGuard(_goalProduction));
+        return checker;
     }
 
-    @Override
-    public Node visitFlags(SoarParser.FlagsContext ctx) {
-        return null;
+    /**
+     * @return the declaration of run_rules(), which runs one round of the productions, and of the state it keeps
+     */
+    private String getRunRules(List<TranslationCache.Fragment> fragments) {
+        int count = fragments.size();
+        StringBuilder function = new StringBuilder();
+
+        function.append("bool production_fired[").append(count).append("];\n");
+        function.append("void run_rules()\n{\n");
+        function.append("    bool enabled[").append(count).append("];\n");
+
+        for (int i = 0; i < count; i++) {
+            String guard = fragments.get(i).guard;
+
+            if (guard.equals(FALSE.name)) {
+                function.append("    enabled[").append(i).append("] = false;\n");
+                continue;
+            }
+            function.append("    enabled[").append(i).append("] = !production_fired[").append(i).append("]");
+
+            if (!guard.isEmpty()) {
+                function.append(" && (").append(guard).append(")");
+            }
+            function.append(";\n");
+        }
+
+        for (int i = 0; i < count; i++) {
+            String assignment = fragments.get(i).assignment;
+
+            if (!assignment.isEmpty() && !fragments.get(i).guard.equals(FALSE.name)) {
+                function.append("    if (enabled[").append(i).append("])\n    {\n");
+                for (String statement : assignment.split(", ")) {
+                    function.append("        ").append(statement).append(";\n");
+                }
+                function.append("    }\n");
+            }
+            function.append("    production_fired[").append(i).append("] = enabled[").append(i).append("];\n");
+        }
+        function.append("}\n");
+        return function.toString();
     }
 
-    @Override
-    public Node visitCondition_side(SoarParser.Condition_sideContext ctx) {
-        List<String> guards = new LinkedList<>();
-        guards.add((String) ctx.state_imp_cond().accept(this).getProperty("name").getValue());
-        guards.addAll(ctx.cond().stream().map(c -> getText(c.accept(this), "name")).collect(Collectors.toList()));
-        return textAsNode("name", guards
-                .stream()
-                .filter(g -> g != null && !g.equals(""))
-                .collect(Collectors.joining(" && ")));
+    /**
+     * Group the productions that differ only in their constants, so that each group shares one template
+     */
+    private TemplateFamilies getTemplateFamilies(List<Production> productions) {
+        List<TranslationCache.Fragment> fragments = productions
+                .parallelStream()
+                .map(this::getFragment)
+                .collect(Collectors.toList());
+
+        TemplateFamilies families = new TemplateFamilies(_symbols == null ? getConstants().keySet() : _symbols.getConstants().keySet());
+
+        for (int i = 0; i < productions.size(); i++) {
+            Production production = productions.get(i);
+            families.add(simplifiedString(production.name), fragments.get(i), !production.halts);
+        }
+        families.group();
+        _metrics.count("sharedTemplates", families.getFamilyCount());
+        return families;
     }
 
-    private Node textAsNode(String property, String text)
-    {
-        Node node = generateNode();
-        node.setProperty(property, text);
-        return node;
+    /**
+     * Write a production's template, or the template of a family of productions. Safe to call from several threads.
+     *
+     * @param parameters the template's parameter declarations, or "" if it has none
+     * @param firstLocationId id of the template's first location; the template uses it and the next one
+     * @return the template's XML
+     */
+    private String visitProduction(String name, String parameters, TranslationCache.Fragment fragment, int firstLocationId) {
+        String runStateID = Integer.toString(firstLocationId);
+        String startStateID = Integer.toString(firstLocationId + 1);
+
+        TemplateWriter template = TEMPLATE_WRITER.get();
+
+        try {
+            UPPAALStreamWriter writer = template.writer;
+            writer.startTemplate(name, parameters);
+            writer.writeLocation(runStateID, "Run", false);
+            writer.writeLocation(startStateID, "Start", true);
+            writer.writeInit(startStateID);
+            writer.writeTransition(runStateID, startStateID, null, "Run_Rule?", null);
+
+            // A production whose guard never holds never fires
+            boolean fires = !fragment.guard.equals(FALSE.name);
+            if (fires) {
+                writer.writeTransition(startStateID, runStateID, fragment.guard, "Run_Rule?", fragment.assignment);
+                countGuard(fragment.guard);
+            }
+            writer.endTemplate();
+            countTemplate(2, fires ? 2 : 1);
+            return template.take();
+        } catch (XMLStreamException e) {
+            // Writing to a string does not fail
+            throw new IllegalStateException(e);
+        }
     }
 
-    private String getText(Node accept, String property)
-    {
-        return (String) accept.getProperty(property).getValue();
+    /**
+     * A template writer and the string it writes to, reused by one thread for all of its templates because creating
+     * a StAX writer costs more than writing a template
+     */
+    private static class TemplateWriter {
+        final StringWriter buffer = new StringWriter();
+        final UPPAALStreamWriter writer;
+
+        TemplateWriter() {
+            try {
+                writer = new UPPAALStreamWriter(buffer);
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return what was written since the last call
+         */
+        String take() throws XMLStreamException {
+            writer.flush();
+            String written = buffer.toString();
+            buffer.getBuffer().setLength(0);
+            return written;
+        }
     }
 
-    private Node generateNode()
-    {
-        return ourDocument.createTemplate();
+    /**
+     * The guard and assignment of the production's transition, from the cache if possible
+     */
+    TranslationCache.Fragment getFragment(Production production) {
+        String key = null;
+
+        if (_cache != null) {
+            key = TranslationCache.key(production, _variableDictionary.get(production.name), _symbols == null ? null : _symbols.fingerprint());
+            TranslationCache.Fragment cached = _cache.get(key);
+
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        String guard = getGuard(production).toString();
+        String assignment = getAssignments(production)
+                .stream()
+                .map(Expression::toString)
+                .collect(Collectors.joining(", "));
+        TranslationCache.Fragment fragment = new TranslationCache.Fragment(guard, assignment);
+
+        if (_cache != null) {
+            _cache.put(key, fragment);
+        }
+        return fragment;
     }
 
-    @Override
-    public Node visitState_imp_cond(SoarParser.State_imp_condContext ctx) {
+    private Expression.Conjunction visitConditions(Production production) {
+        Map<String, String> localVariableDictionary = _variableDictionary.get(production.name);
+        List<Expression> comparisons = new LinkedList<>();
 
-        String productionName = ((SoarParser.Soar_productionContext) ctx.parent.parent).sym_constant().getText();
-        String idTest = ctx.id_test().getText();
-        Map<String, String> localVariableDictionary = _variableDictionary.get(productionName);
-        return textAsNode("name", innerConditionVisit(ctx.attr_value_tests(), localVariableDictionary, idTest));
+        for (Condition condition : production.conditions) {
+            comparisons.addAll(innerConditionVisit(condition.attributeTests, localVariableDictionary, condition.idText));
+        }
+        return new Expression.Conjunction(comparisons);
     }
 
-    private String innerConditionVisit(List<SoarParser.Attr_value_testsContext> attrValueTestsCtxs, Map<String, String> localVariableDictionary, String idTest)
+    private List<Expression> innerConditionVisit(List<AttributeTest> attributeTests, Map<String, String> localVariableDictionary, String idTest)
     {
-        List<String> stateVariableComparisons = new LinkedList<>();
+        List<Expression> stateVariableComparisons = new LinkedList<>();
 
         // Variable in left hand side
         if (localVariableDictionary.containsKey(idTest))
@@ -190,56 +798,45 @@ public class UPPAALSemanticVisitor extends SoarBaseVisitor<Node> {
             String variablePath = localVariableDictionary.get(idTest);
 
             // Build the comparisons
-            for (SoarParser.Attr_value_testsContext attributeCtx : attrValueTestsCtxs)
+            for (AttributeTest attributeTest : attributeTests)
             {
-                String attrPath = attributeCtx.attr_test().stream().map(RuleContext::getText).collect(Collectors.joining("_"));
-
-                String leftTerm = variablePath + "_" + attrPath;
+                Expression.Name leftTerm = getName(variablePath + "_" + attributeTest.path());
 
-                if (attributeCtx.getText().startsWith("-^"))
+                if (attributeTest.negated)
                 {
-                    stateVariableComparisons.add(leftTerm + " == nil");
+                    stateVariableComparisons.add(new Expression.Relation(leftTerm, "==", NIL));
                 }
                 else
                 {
-                    int numberOfValues = attributeCtx.value_test().size();
+                    int numberOfValues = attributeTest.values.size();
 
                     if (numberOfValues == 1)
                     {
-                        Node relationAndRightTerm = attributeCtx.value_test(0).accept(this);
+                        ValueTest valueTest = attributeTest.values.get(0);
 
-                        String relation = getText(relationAndRightTerm, "rel");
-                        String rightTerm;
-
-                        if (relation.equals("="))
+                        if (!valueTest.isSupported())
                         {
-                            relation = "==";
+                            continue;
                         }
 
-                        if (relationAndRightTerm.getProperty("var") != null)
-                        {
-                            rightTerm = localVariableDictionary.get(getText(relationAndRightTerm,"var"));
-                        }
-                        else
-                        {
-                            rightTerm = getText(relationAndRightTerm, "const");
-                        }
+                        String relation = getRelation(valueTest);
+                        Expression rightTerm = getOperand(valueTest.value, localVariableDictionary);
 
                         if (rightTerm == null)
                         {
                             break;
                         }
-                        else if (rightTerm.equals("true") && relation.equals("=="))
+                        else if (rightTerm.equals(TRUE) && relation.equals("=="))
                         {
-                            stateVariableComparisons.add(simplifiedString(leftTerm));
+                            stateVariableComparisons.add(leftTerm);
                         }
-                        else if (rightTerm.equals("false") && relation.equals("=="))
+                        else if (rightTerm.equals(FALSE) && relation.equals("=="))
                         {
-                            stateVariableComparisons.add("!"+simplifiedString(leftTerm));
+                            stateVariableComparisons.add(new Expression.Negation(leftTerm));
                         }
-                        else if (!rightTerm.equals(leftTerm))
+                        else
                         {
-                            stateVariableComparisons.add(simplifiedString(leftTerm) + " " + relation + " " + simplifiedString(rightTerm));
+                            stateVariableComparisons.add(new Expression.Relation(leftTerm, relation, rightTerm));
                         }
                     }
                     else
@@ -251,215 +848,110 @@ public class UPPAALSemanticVisitor extends SoarBaseVisitor<Node> {
             }
         }
 
-        return stateVariableComparisons
-                .stream()
-                .filter(c -> c != null && !c.equals(""))
-                .collect(Collectors.joining(" && "));
-    }
-
-    @Override
-    public Node visitCond(SoarParser.CondContext ctx) {
-        return ctx.positive_cond().accept(this);
-    }
-
-    @Override
-    public Node visitPositive_cond(SoarParser.Positive_condContext ctx) {
-        return ctx.conds_for_one_id().accept(this);
-    }
-
-    @Override
-    public Node visitConds_for_one_id(SoarParser.Conds_for_one_idContext ctx) {
-        String productionName = ((SoarParser.Soar_productionContext) ctx.parent.parent.parent.parent).sym_constant().getText();
-        String idTest = ctx.id_test().getText();
-        Map<String, String> localVariableDictionary = _variableDictionary.get(productionName);
-
-        return textAsNode("name", innerConditionVisit(ctx.attr_value_tests(), localVariableDictionary, idTest));
-    }
-
-    @Override
-    public Node visitId_test(SoarParser.Id_testContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitAttr_value_tests(SoarParser.Attr_value_testsContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitAttr_test(SoarParser.Attr_testContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitValue_test(SoarParser.Value_testContext ctx) {
-        return ctx.children.get(0).accept(this);
+        return stateVariableComparisons;
     }
 
-    @Override
-    public Node visitTest(SoarParser.TestContext ctx) {
-        return ctx.children.get(0).accept(this);
-    }
-
-    @Override
-    public Node visitConjunctive_test(SoarParser.Conjunctive_testContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitSimple_test(SoarParser.Simple_testContext ctx) {
-        return ctx.children.get(0).accept(this);
-    }
-
-    @Override
-    public Node visitMulti_value_test(SoarParser.Multi_value_testContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitDisjunction_test(SoarParser.Disjunction_testContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitRelational_test(SoarParser.Relational_testContext ctx) {
+    private String getRelation(ValueTest valueTest) {
         String relation = "==";
 
-        if (ctx.relation() != null)
+        if (valueTest.relation != null)
         {
-            relation = ctx.relation().getText();
+            relation = valueTest.relation;
 
             if (relation.equals("<>"))
             {
                 relation = "!=";
             }
+            else if (relation.equals("="))
+            {
+                relation = "==";
+            }
         }
-        Node returnNode = ctx.single_test().accept(this);
-        returnNode.setProperty("rel", relation);
-        return returnNode;
-    }
-
-    @Override
-    public Node visitRelation(SoarParser.RelationContext ctx) {
-        return null;
+        return relation;
     }
 
-    @Override
-    public Node visitSingle_test(SoarParser.Single_testContext ctx) {
-        return ctx.children.get(0).accept(this);
+    private Expression.Name getName(String path) {
+        return new Expression.Name(simplifiedString(path));
     }
 
-    @Override
-    public Node visitVariable(SoarParser.VariableContext ctx) {
-        return textAsNode("var", ctx.getText());
-    }
-
-    @Override
-    public Node visitConstant(SoarParser.ConstantContext ctx) {
-        String result = simplifiedString(ctx.getText());
-
-        if (ctx.Print_string() != null)
+    private Expression getConstant(Value constant) {
+        switch (constant.kind)
         {
-            result = LITERAL_STRING_PREFIX + ctx.Print_string().getText().split("|")[1];
+            case INTEGER:
+            case FLOAT:
+                return new Expression.Literal(constant.text);
+            case STRING:
+                return new Expression.Name(LITERAL_STRING_PREFIX + constant.text.split("|")[1]);
+            default:
+                return getName(constant.text);
         }
-        return textAsNode("const", result);
     }
 
-    @Override
-    public Node visitAction_side(SoarParser.Action_sideContext ctx) {
-    return textAsNode("name", ctx.action()
-                        .stream()
-                        .map(action -> getText(action.accept(this), "name"))
-                        .filter(t -> t != null && !t.equals(""))
-                        .collect(Collectors.joining(", ")));
+    /**
+     * A variable, constant or function call as an expression, or null if a variable is not bound in this production
+     * or a function cannot be translated
+     */
+    private Expression getOperand(Value value, Map<String, String> localDictionary) {
+        if (value.isVariable())
+        {
+            String path = localDictionary.get(value.text);
+            return path == null ? null : getName(path);
+        }
+        else if (value.isFunction())
+        {
+            return visitFunctionCall(value, localDictionary);
+        }
+        else
+        {
+            return getConstant(value);
+        }
     }
 
-    @Override
-    public Node visitAction(SoarParser.ActionContext ctx) {
-        String productionName = ((SoarParser.Soar_productionContext) ctx.parent.parent).sym_constant().getText();
-        Map<String, String> localDictionary = _variableDictionary.get(productionName);
-        String prefix = localDictionary.get(ctx.variable().getText());
+    private List<Expression.Assignment> visitActions(Production production) {
+        Map<String, String> localDictionary = _variableDictionary.get(production.name);
+        List<Expression.Assignment> assignments = new LinkedList<>();
 
-        return textAsNode("name", innerVisitAction(prefix, ctx.attr_value_make()));
+        for (Action action : production.actions) {
+            assignments.addAll(innerVisitAction(localDictionary.get(action.variable), action.attributeMakes, localDictionary));
+        }
+        return assignments;
     }
 
-    private String innerVisitAction(String prefix, List<SoarParser.Attr_value_makeContext> ctxs)
+    private Collection<Expression.Assignment> innerVisitAction(String prefix, List<AttributeMake> attributeMakes, Map<String, String> localDictionary)
     {
-        Map<String, String[]> stateAssignments = new HashMap<>();
+        Map<String, Expression.Assignment> stateAssignments = new HashMap<>();
+        Map<String, String> statePreferences = new HashMap<>();
 
-        for (SoarParser.Attr_value_makeContext attrCtx : ctxs)
+        for (AttributeMake attributeMake : attributeMakes)
         {
-            String suffix = attrCtx.variable_or_sym_constant()
-                    .stream()
-                    .map(RuleContext::getText)
-                    .collect(Collectors.joining("_"));
-
-            String leftSide = prefix + "_" + suffix;
+            String leftSide = prefix + "_" + attributeMake.path();
 
-            Node rightSideElement = attrCtx.value_make().accept(this);
-            String[] rightSide = determineAssignment(leftSide, rightSideElement, stateAssignments);
+            Expression rightSide = visitValue(attributeMake.value, localDictionary);
+            String prefs = attributeMake.preferences == null ? "+" : attributeMake.preferences;
 
-            if (rightSide != null)
+            if (rightSide != null && isPreferred(prefs, statePreferences.get(leftSide)))
             {
-                stateAssignments.put(leftSide, rightSide);
+                stateAssignments.put(leftSide, new Expression.Assignment(getName(leftSide), rightSide));
+                statePreferences.put(leftSide, prefs);
             }
         }
-        return stateAssignments.entrySet().stream()
-                .map(e -> simplifiedString(e.getKey()) + " = " + e.getValue()[0])
-                .collect(Collectors.joining(", "));
+        return stateAssignments.values();
     }
 
-    private String[] determineAssignment(String leftSide, Node rightSideElement, Map<String, String[]> stateAssignments)
+    /**
+     * Right hand side of an assignment, or null if the value cannot be assigned (e.g. a bare variable)
+     */
+    private Expression visitValue(Value value, Map<String, String> localDictionary)
     {
-        if (rightSideElement == null)
-        {
-            return null;
-        }
-
-        String rightSide;
-        String prefs;
-
-        if (rightSideElement.getProperty("const") != null)
-        {
-            rightSide = getText(rightSideElement, "const");
-        }
-        else if (rightSideElement.getProperty("expr") != null)
-        {
-            rightSide = getText(rightSideElement, "expr");
-        }
-        else
-        {
-            return null;
-        }
-
-        if (rightSideElement.getProperty("pref") != null)
-        {
-            prefs = getText(rightSideElement, "pref");
-        }
-        else
-        {
-            prefs = "+";
-        }
-
-        if (stateAssignments.containsKey(leftSide))
-        {
-            String currentPrefs = stateAssignments.get(leftSide)[1];
-
-            String bestPref = getBestPreference(prefs, currentPrefs);
+        return value.isVariable() ? null : getOperand(value, localDictionary);
+    }
 
-            if (bestPref.equals(prefs))
-            {
-                return new String[]{rightSide, prefs};
-            }
-            else
-            {
-                return null;
-            }
-        }
-        else
-        {
-            return new String[]{rightSide, prefs};
-        }
+    /**
+     * Whether a value made with the given preferences replaces one already made with currentPrefs (null if none)
+     */
+    private boolean isPreferred(String prefs, String currentPrefs)
+    {
+        return currentPrefs == null || getBestPreference(prefs, currentPrefs).equals(prefs);
     }
 
     private String getBestPreference(String pref1, String pref2)
@@ -488,193 +980,46 @@ public class UPPAALSemanticVisitor extends SoarBaseVisitor<Node> {
         return pref1;
     }
 
-    @Override
-    public Node visitPrint(SoarParser.PrintContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitFunc_call(SoarParser.Func_callContext ctx) {
-        String productionName = ((SoarParser.Soar_productionContext) ctx.parent.parent.parent.parent.parent.parent).sym_constant().getText();
-        Map<String, String> localDictionary = _variableDictionary.get(productionName);
-
-        SoarParser.ValueContext leftContext = ctx.value(0);
-        SoarParser.ValueContext rightContext = ctx.value(1);
+    /**
+     * Translate an arithmetic function call, or return null for other functions and unbound variables
+     */
+    private Expression visitFunctionCall(Value function, Map<String, String> localDictionary) {
+        Expression leftSide = getOperand(function.arguments.get(0), localDictionary);
 
-        String leftSide = leftContext.variable() == null ? leftContext.constant().getText() : localDictionary.get(leftContext.getText());
-
-        String result;
-
-        if (ctx.func_name().getText().equals("-") && rightContext == null)
+        if (leftSide == null)
         {
-            result = "0 - " + simplifiedString(leftSide);
+            return null;
         }
-        else
+        else if (function.text.equals("-") && function.arguments.size() == 1)
         {
-            String rightSide = rightContext.variable() == null ? rightContext.constant().getText() : localDictionary.get(rightContext.getText());
-            String funcName = ctx.func_name().getText();
-
-            if ("+-/*".contains(ctx.func_name().getText()))
-            {
-                result = simplifiedString(leftSide + " " + funcName + " " + rightSide);
-            }
-            else
-            {
-                result = "";
-            }
+            return new Expression.Arithmetic(new Expression.Literal("0"), "-", leftSide);
         }
-
-        return textAsNode("expr", result);
-    }
-
-    @Override
-    public Node visitFunc_name(SoarParser.Func_nameContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitValue(SoarParser.ValueContext ctx) {
-        return ctx.children.get(0).accept(this);
-    }
-
-    @Override
-    public Node visitAttr_value_make(SoarParser.Attr_value_makeContext ctx) {
-        String leftSide = ctx.variable_or_sym_constant()
-                .stream()
-                .map(RuleContext::getText)
-                .collect(Collectors.joining("_"));
-
-        Node rightSide = ctx.value_make().accept(this);
-
-        if (rightSide == null) {
-            return generateNode();
-        } else {
-            return textAsNode("name", leftSide + " = " + getText(rightSide, "name"));
-        }
-    }
-
-    @Override
-    public Node visitVariable_or_sym_constant(SoarParser.Variable_or_sym_constantContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitValue_make(SoarParser.Value_makeContext ctx) {
-        Node resultantElement = ctx.value().accept(this);
-
-        long preferences = ctx.pref_specifier().size();
-
-        if (preferences > 0)
+        else if (function.arguments.size() == 2 && ARITHMETIC_OPERATORS.contains(function.text))
         {
-            String concatenatedPreferences = ctx.pref_specifier()
-                    .stream()
-                    .map(RuleContext::getText)
-                    .collect(Collectors.joining());
-
-            resultantElement.setProperty("pref", concatenatedPreferences);
+            Expression rightSide = getOperand(function.arguments.get(1), localDictionary);
+            return rightSide == null ? null : new Expression.Arithmetic(leftSide, function.text, rightSide);
         }
-
-        return resultantElement;
-    }
-
-    @Override
-    public Node visitPref_specifier(SoarParser.Pref_specifierContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitUnary_pref(SoarParser.Unary_prefContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitUnary_or_binary_pref(SoarParser.Unary_or_binary_prefContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visitSym_constant(SoarParser.Sym_constantContext ctx) {
-        return null;
-    }
-
-    @Override
-    public Node visit(ParseTree parseTree) {
-        return null;
-    }
-
-    @Override
-    public Node visitChildren(RuleNode ruleNode) {
-        return null;
-    }
-
-    @Override
-    public Node visitTerminal(TerminalNode terminalNode) {
-        return null;
-    }
-
-    @Override
-    public Node visitErrorNode(ErrorNode errorNode) {
         return null;
     }
 
-    private Template makeTemplate(String name) {
-        Template t = ourDocument.createTemplate();
-        ourDocument.insert(t, lastTemplate);
-        lastTemplate = t;
-        t.setProperty("name", name);
-        return t;
-    }
-
-    private Location makeLocation(Template t, String name, String ID, boolean committed, boolean init) {
-        Location l = t.createLocation();
-        t.insert(l, t.getLast());
-        l.setProperty("name", name);
-        l.setProperty("id", "id" + ID);
-        if (committed) {
-            l.setProperty("committed", true);
-        }
-        if (init) {
-            l.setProperty("init", true);
-        }
-        return l;
-    }
-
-    private Edge makeEdge(Template t, Location source, Location target, String synchronisation, String guard, String assignment) {
-        Edge e = t.createEdge();
-        t.insert(e, t.getLast());
-        e.setSource(source);
-        e.setTarget(target);
-        if (synchronisation != null) {
-            e.setProperty("synchronisation", synchronisation);
-        }
-        if (guard != null) {
-            e.setProperty("guard", guard);
-        }
-        if (assignment != null) {
-            e.setProperty("assignment", assignment);
-        }
-        return e;
-    }
-
-    private Element getScheduler()
+    private void getScheduler() throws XMLStreamException
     {
         String checkId = getCounter();
         String runId = getCounter();
         String startId = getCounter();
 
-        Template schedulerTemplate = makeTemplate("scheduler");
-
-        Location checkLocation = makeLocation(schedulerTemplate, "Check", checkId, true, false);
-
-        Location runLocation = makeLocation(schedulerTemplate, "Run", runId, true, false);
-
-        Location startLocation = makeLocation(schedulerTemplate, "Start", startId, false, true);
-
-        makeEdge(schedulerTemplate, checkLocation, runLocation, "Run_Rule!", null, null);
-
-        makeEdge(schedulerTemplate, runLocation, checkLocation, null, "!(" + getText(_goalProductionContext.condition_side().accept(this), "name") + ")", null);
-
-        makeEdge(schedulerTemplate, startLocation, runLocation, "Run_Rule!", null, null);
-        return null;
+        String goalGuard = getGoalGuard();
+
+        _writer.startTemplate("scheduler");
+        _writer.writeLocation(checkId, "Check", true);
+        _writer.writeLocation(runId, "Run", true);
+        _writer.writeLocation(startId, "Start", false);
+        _writer.writeInit(startId);
+        _writer.writeTransition(checkId, runId, null, "Run_Rule!", null);
+        _writer.writeTransition(runId, checkId, goalGuard, null, null);
+        _writer.writeTransition(startId, runId, null, "Run_Rule!", null);
+        _writer.endTemplate();
+        countTemplate(3, 3);
+        countGuard(goalGuard);
     }
 }
@@ -0,0 +1,166 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write a UPPAAL model straight to an output stream with StAX. Elements must be written in document order:
+ * the global declaration, then each template (locations, init, transitions), then the system. Nothing but the
+ * underlying writer's buffer is kept in memory, so the size of the model does not affect heap use.
+ *
+ * The output matches the layout of the UPPAAL library's XMLWriter.
+ *
+ * Templates can also be written on their own to a Writer and copied into the document later with writeTemplates,
+ * which is how templates are generated in parallel.
+ */
+class UPPAALStreamWriter
+{
+    private static final String DOCTYPE = "<!DOCTYPE nta PUBLIC '-//Uppaal Team//DTD Flat System 1.1//EN' 'http://www.it.uu.se/research/group/darts/uppaal/flat-1_1.dtd'>";
+
+    private final Writer out;
+    private final XMLStreamWriter writer;
+
+    UPPAALStreamWriter(OutputStream out) throws XMLStreamException
+    {
+        // The StAX writer encodes a character at a time, so give it a buffer rather than the raw stream
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    UPPAALStreamWriter(Writer out) throws XMLStreamException
+    {
+        this.out = out;
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+    }
+
+    void writeDeclaration(String declaration) throws XMLStreamException
+    {
+        writer.writeStartDocument("utf-8", "1.0");
+        writer.writeDTD(DOCTYPE);
+        writer.writeStartElement("nta");
+        writeTextElement("declaration", declaration, false);
+    }
+
+    void startTemplate(String name) throws XMLStreamException
+    {
+        startTemplate(name, null);
+    }
+
+    /**
+     * @param parameters the template's parameter declarations, or null or empty if it has none
+     */
+    void startTemplate(String name, String parameters) throws XMLStreamException
+    {
+        writer.writeStartElement("template");
+        writeTextElement("name", name, false);
+        writeTextElement("parameter", parameters, false);
+    }
+
+    void writeLocation(String id, String name, boolean committed) throws XMLStreamException
+    {
+        writer.writeStartElement("location");
+        writer.writeAttribute("id", "id" + id);
+        writeCoordinates();
+        writeTextElement("name", name, true);
+
+        if (committed)
+        {
+            writer.writeEmptyElement("committed");
+        }
+        writer.writeEndElement();
+    }
+
+    void writeInit(String id) throws XMLStreamException
+    {
+        writer.writeEmptyElement("init");
+        writer.writeAttribute("ref", "id" + id);
+    }
+
+    /**
+     * Write a transition. Null or blank labels are left out.
+     */
+    void writeTransition(String sourceId, String targetId, String guard, String synchronisation, String assignment) throws XMLStreamException
+    {
+        writer.writeStartElement("transition");
+        writer.writeEmptyElement("source");
+        writer.writeAttribute("ref", "id" + sourceId);
+        writer.writeEmptyElement("target");
+        writer.writeAttribute("ref", "id" + targetId);
+        writeLabel("guard", guard);
+        writeLabel("synchronisation", synchronisation);
+        writeLabel("assignment", assignment);
+        writer.writeEndElement();
+    }
+
+    void endTemplate() throws XMLStreamException
+    {
+        writer.writeEndElement();
+    }
+
+    /**
+     * Copy complete templates, written by another UPPAALStreamWriter, into this document
+     */
+    void writeTemplates(String templates) throws XMLStreamException
+    {
+        writer.flush();
+
+        try
+        {
+            out.write(templates);
+        }
+        catch (IOException e)
+        {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    void flush() throws XMLStreamException
+    {
+        writer.flush();
+    }
+
+    /**
+     * Write the system declaration and finish the document
+     */
+    void writeSystem(String system) throws XMLStreamException
+    {
+        writeTextElement("system", system, false);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    private void writeLabel(String kind, String text) throws XMLStreamException
+    {
+        if (text != null && text.trim().length() > 0)
+        {
+            writer.writeStartElement("label");
+            writer.writeAttribute("kind", kind);
+            writeCoordinates();
+            writer.writeCharacters(text.trim());
+            writer.writeEndElement();
+        }
+    }
+
+    private void writeTextElement(String name, String text, boolean withCoordinates) throws XMLStreamException
+    {
+        if (text != null && text.length() > 0)
+        {
+            writer.writeStartElement(name);
+            if (withCoordinates)
+            {
+                writeCoordinates();
+            }
+            writer.writeCharacters(text);
+            writer.writeEndElement();
+        }
+    }
+
+    private void writeCoordinates() throws XMLStreamException
+    {
+        writer.writeAttribute("x", "0");
+        writer.writeAttribute("y", "0");
+    }
+}
@@ -0,0 +1,61 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A right hand side term of a Soar condition or action: a variable, a constant or a function call
+ */
+class Value
+{
+    enum Kind
+    {
+        VARIABLE, SYMBOL, INTEGER, FLOAT, STRING, FUNCTION
+    }
+
+    final Kind kind;
+    final String text;
+    final List<Value> arguments;
+
+    private Value(Kind kind, String text, List<Value> arguments)
+    {
+        this.kind = kind;
+        this.text = text;
+        this.arguments = arguments;
+    }
+
+    static Value variable(String text)
+    {
+        return new Value(Kind.VARIABLE, text, Collections.emptyList());
+    }
+
+    static Value constant(Kind kind, String text)
+    {
+        return new Value(kind, text, Collections.emptyList());
+    }
+
+    /**
+     * @param name the function name, e.g. "+" or "halt"
+     * @param arguments
+     * @return
+     */
+    static Value function(String name, List<Value> arguments)
+    {
+        return new Value(Kind.FUNCTION, name, arguments);
+    }
+
+    boolean isVariable()
+    {
+        return kind == Kind.VARIABLE;
+    }
+
+    boolean isFunction()
+    {
+        return kind == Kind.FUNCTION;
+    }
+
+    boolean isConstant()
+    {
+        return !isVariable() && !isFunction();
+    }
+}
@@ -0,0 +1,110 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The values each integer state variable can take. A variable starts as nil (0) and only changes through the
+ * assignments of productions, so if every assignment to it is a constant, its values are bounded by those constants
+ * and it can be declared as int[lo,hi] instead of a full int. A variable assigned the result of arithmetic, or
+ * anything else whose value is not known here, keeps the full range. So do input link attributes, which the
+ * environment writes rather than the productions.
+ */
+class ValueDomains
+{
+    private static final String INPUT_LINK_PREFIX = "state_io_input_link";
+
+    private final Map<String, Integer> constants;
+    private final Map<String, int[]> ranges = new HashMap<>();
+    private final Set<String> unbounded = new HashSet<>();
+
+    /**
+     * @param constants value of each symbolic constant, including nil
+     */
+    ValueDomains(Map<String, Integer> constants)
+    {
+        this.constants = constants;
+    }
+
+    void add(Expression.Assignment assignment)
+    {
+        String variable = assignment.variable.name;
+        Integer value = valueOf(assignment.value);
+
+        if (value == null)
+        {
+            unbounded.add(variable);
+            return;
+        }
+
+        int[] range = ranges.computeIfAbsent(variable, v -> new int[]{0, 0});
+        range[0] = Math.min(range[0], value);
+        range[1] = Math.max(range[1], value);
+    }
+
+    /**
+     * @return the UPPAAL type of the variable: "int[lo,hi]" if it only takes constant values, "int" otherwise
+     */
+    String typeOf(String variable)
+    {
+        if (isUnbounded(variable))
+        {
+            return "int";
+        }
+
+        int[] range = ranges.getOrDefault(variable, new int[]{0, 0});
+        return "int[" + range[0] + "," + range[1] + "]";
+    }
+
+    /**
+     * @return the lowest and highest value the variable can take, or null if it is not bounded
+     */
+    int[] rangeOf(String variable)
+    {
+        if (isUnbounded(variable))
+        {
+            return null;
+        }
+        return ranges.getOrDefault(variable, new int[]{0, 0}).clone();
+    }
+
+    /**
+     * @return whether the variable is written by the environment, so it can take any value whatever the productions
+     * assign to it
+     */
+    static boolean isInputLink(String variable)
+    {
+        return variable.startsWith(INPUT_LINK_PREFIX);
+    }
+
+    private boolean isUnbounded(String variable)
+    {
+        return unbounded.contains(variable) || isInputLink(variable);
+    }
+
+    /**
+     * @return the constant value of the expression, or null if it is not a constant known here
+     */
+    private Integer valueOf(Expression expression)
+    {
+        if (expression instanceof Expression.Name)
+        {
+            return constants.get(((Expression.Name) expression).name);
+        }
+        else if (expression instanceof Expression.Literal)
+        {
+            try
+            {
+                return Integer.valueOf(((Expression.Literal) expression).text);
+            }
+            catch (NumberFormatException e)
+            {
+                // A float, which an int cannot hold anyway
+                return null;
+            }
+        }
+        return null;
+    }
+}
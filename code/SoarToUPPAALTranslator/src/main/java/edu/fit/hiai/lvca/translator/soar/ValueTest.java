@@ -0,0 +1,42 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+/**
+ * A single relational test against a value, e.g. "< 5" or "<o>". Tests the translator does not support
+ * (conjunctions, disjunctions, nested conditions) carry no value.
+ */
+class ValueTest
+{
+    final String relation;
+    final Value value;
+    final boolean acceptable;
+
+    ValueTest(String relation, Value value, boolean acceptable)
+    {
+        this.relation = relation;
+        this.value = value;
+        this.acceptable = acceptable;
+    }
+
+    static ValueTest unsupported()
+    {
+        return new ValueTest(null, null, false);
+    }
+
+    boolean isSupported()
+    {
+        return value != null;
+    }
+
+    /**
+     * True if this is a plain equality test against the constant "true" or "false"
+     * @return
+     */
+    boolean isBooleanConstant()
+    {
+        return isSupported()
+                && relation == null
+                && !acceptable
+                && value.kind == Value.Kind.SYMBOL
+                && (value.text.equals("true") || value.text.equals("false"));
+    }
+}
@@ -0,0 +1,370 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Check every property of some UPPAAL query files against a model, one verifier process per property, several at a
+ * time. Verdicts, times and memory use are written as a JSON report.
+ *
+ * Properties are started longest first, by the time they took last time, so that a long property does not start
+ * last and hold up the whole run. Properties never run before go first, since nothing says they are short. The
+ * times are kept in a file next to the model, "model.xml.times".
+ *
+ * The verifier is run as "verifier -u model.xml property.q" and its output read the way verifyta writes it; any
+ * program that does the same, such as a stub script, can stand in for it.
+ */
+class VerificationRunner
+{
+    private static final Pattern VERDICT = Pattern.compile("Formula is (NOT )?satisfied|Formula (may|MAY) (not )?be satisfied", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MEMORY = Pattern.compile("(Resident|Virtual) memory used\\s*:\\s*(\\d+)\\s*KiB");
+    private static final Pattern STATES = Pattern.compile("States explored\\s*:\\s*(\\d+)");
+    private static final Pattern COMMENT = Pattern.compile("//[^\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final String TIMES_EXTENSION = ".times";
+
+    private final Path model;
+    private final List<Path> queryFiles;
+    private final String verifier;
+    private final int processes;
+    private final long timeoutSeconds;
+
+    /**
+     * One property of a query file
+     */
+    static class Property
+    {
+        final Path queryFile;
+        final int line;
+        final String formula;
+
+        Property(Path queryFile, int line, String formula)
+        {
+            this.queryFile = queryFile;
+            this.line = line;
+            this.formula = formula;
+        }
+    }
+
+    private static class Result
+    {
+        final Property property;
+        String verdict = "error";
+        long millis;
+        long residentKiB = -1;
+        long virtualKiB = -1;
+        long states = -1;
+        int exitCode = -1;
+        String message = null;
+
+        Result(Property property)
+        {
+            this.property = property;
+        }
+    }
+
+    /**
+     * @param verifier the verifyta executable, or anything that behaves like it
+     * @param processes how many verifier processes to run at once
+     * @param timeoutSeconds how long a property may run before it is stopped, or 0 for no limit
+     */
+    VerificationRunner(Path model, List<Path> queryFiles, String verifier, int processes, long timeoutSeconds)
+    {
+        this.model = model.toAbsolutePath();
+        this.queryFiles = queryFiles;
+        this.verifier = verifier;
+        this.processes = Math.max(1, processes);
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Check all properties and write the report
+     *
+     * @param report where the JSON report goes
+     * @return true if the verifier gave a verdict for every property
+     */
+    boolean run(Writer report) throws IOException, InterruptedException
+    {
+        List<Property> properties = new ArrayList<>();
+        for (Path queryFile : queryFiles)
+        {
+            properties.addAll(readProperties(queryFile));
+        }
+
+        Path timesFile = Paths.get(model + TIMES_EXTENSION);
+        Map<String, Long> times = readTimes(timesFile);
+
+        // Longest first; never run counts as longest
+        properties.sort(Comparator.comparingLong((Property p) -> times.getOrDefault(p.formula, Long.MAX_VALUE)).reversed());
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(processes);
+        List<Result> results = new ArrayList<>();
+
+        try
+        {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Property property : properties)
+            {
+                futures.add(pool.submit(() -> verify(property)));
+            }
+
+            for (Future<Result> future : futures)
+            {
+                try
+                {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // A property that timed out took at least the timeout, which still puts it early next time
+        for (Result result : results)
+        {
+            times.put(result.property.formula, result.millis);
+        }
+        writeTimes(timesFile, times);
+
+        // Report in the order of the query files
+        results.sort(Comparator.comparing((Result r) -> queryFiles.indexOf(r.property.queryFile)).thenComparingInt(r -> r.property.line));
+        writeReport(report, results, wallMillis);
+
+        return results.stream().allMatch(r -> r.message == null);
+    }
+
+    /**
+     * The properties of a query file: every line that is not blank once comments are removed
+     */
+    static List<Property> readProperties(Path queryFile) throws IOException
+    {
+        String text = new String(Files.readAllBytes(queryFile), StandardCharsets.UTF_8);
+
+        // Blank out comments but keep their line breaks, so line numbers still match the file
+        Matcher comments = COMMENT.matcher(text);
+        StringBuffer withoutComments = new StringBuffer();
+        while (comments.find())
+        {
+            comments.appendReplacement(withoutComments, comments.group().replaceAll("[^\n]", " "));
+        }
+        comments.appendTail(withoutComments);
+
+        List<Property> properties = new ArrayList<>();
+        String[] lines = withoutComments.toString().split("\n", -1);
+
+        for (int i = 0; i < lines.length; i++)
+        {
+            String formula = lines[i].trim();
+            if (!formula.isEmpty())
+            {
+                properties.add(new Property(queryFile, i + 1, formula));
+            }
+        }
+        return properties;
+    }
+
+    private Result verify(Property property) throws IOException, InterruptedException
+    {
+        Result result = new Result(property);
+        Path query = Files.createTempFile("property", ".q");
+        Path output = Files.createTempFile("verifier", ".out");
+
+        try
+        {
+            Files.write(query, (property.formula + "\n").getBytes(StandardCharsets.UTF_8));
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(verifier, "-u", model.toString(), query.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output.toFile())
+                    .start();
+
+            boolean finished = true;
+            if (timeoutSeconds > 0)
+            {
+                finished = process.waitFor(timeoutSeconds, TimeUnit.SECONDS);
+            }
+            else
+            {
+                process.waitFor();
+            }
+            result.millis = (System.nanoTime() - start) / 1_000_000;
+
+            if (!finished)
+            {
+                process.destroyForcibly().waitFor();
+                result.verdict = "timeout";
+                result.message = "Stopped after " + timeoutSeconds + " s";
+                return result;
+            }
+
+            result.exitCode = process.exitValue();
+            readOutput(new String(Files.readAllBytes(output), StandardCharsets.UTF_8), result);
+        }
+        catch (IOException e)
+        {
+            result.message = e.getMessage();
+        }
+        finally
+        {
+            Files.deleteIfExists(query);
+            Files.deleteIfExists(output);
+        }
+        return result;
+    }
+
+    private static void readOutput(String output, Result result)
+    {
+        Matcher verdict = VERDICT.matcher(output);
+        if (verdict.find())
+        {
+            String text = verdict.group().toLowerCase();
+            result.verdict = text.contains("may") ? "maybe" : text.contains("not") ? "not satisfied" : "satisfied";
+        }
+        else
+        {
+            String lastLine = output.trim().isEmpty() ? "no output" : output.trim().substring(output.trim().lastIndexOf('\n') + 1);
+            result.message = "No verdict (exit code " + result.exitCode + "): " + lastLine;
+        }
+
+        Matcher memory = MEMORY.matcher(output);
+        while (memory.find())
+        {
+            long kib = Long.parseLong(memory.group(2));
+            if (memory.group(1).equals("Resident"))
+            {
+                result.residentKiB = kib;
+            }
+            else
+            {
+                result.virtualKiB = kib;
+            }
+        }
+
+        Matcher states = STATES.matcher(output);
+        if (states.find())
+        {
+            result.states = Long.parseLong(states.group(1));
+        }
+    }
+
+    /**
+     * @return the last time in milliseconds of each property, by formula
+     */
+    private static Map<String, Long> readTimes(Path timesFile)
+    {
+        Map<String, Long> times = new HashMap<>();
+
+        if (Files.isRegularFile(timesFile))
+        {
+            try
+            {
+                for (String line : Files.readAllLines(timesFile, StandardCharsets.UTF_8))
+                {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0)
+                    {
+                        times.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+                    }
+                }
+            }
+            catch (IOException | NumberFormatException e)
+            {
+                // Only the order of the properties depends on it
+                times.clear();
+            }
+        }
+        return times;
+    }
+
+    private static void writeTimes(Path timesFile, Map<String, Long> times) throws IOException
+    {
+        List<String> lines = times.entrySet()
+                .stream()
+                .map(entry -> entry.getValue() + "\t" + entry.getKey())
+                .sorted()
+                .collect(Collectors.toList());
+        Files.write(timesFile, lines, StandardCharsets.UTF_8);
+    }
+
+    private void writeReport(Writer out, List<Result> results, long wallMillis) throws IOException
+    {
+        out.write("{\n");
+        out.write("  \"model\": " + quote(model.toString()) + ",\n");
+        out.write("  \"verifier\": " + quote(verifier) + ",\n");
+        out.write("  \"processes\": " + processes + ",\n");
+        out.write("  \"wallMillis\": " + wallMillis + ",\n");
+        out.write("  \"properties\": [");
+
+        for (int i = 0; i < results.size(); i++)
+        {
+            Result result = results.get(i);
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write("    {\"queryFile\": " + quote(result.property.queryFile.toString())
+                    + ", \"line\": " + result.property.line
+                    + ", \"formula\": " + quote(result.property.formula)
+                    + ", \"verdict\": " + quote(result.verdict)
+                    + ", \"millis\": " + result.millis
+                    + ", \"residentKiB\": " + result.residentKiB
+                    + ", \"virtualKiB\": " + result.virtualKiB
+                    + ", \"statesExplored\": " + result.states
+                    + ", \"exitCode\": " + result.exitCode
+                    + (result.message == null ? "" : ", \"message\": " + quote(result.message))
+                    + "}");
+        }
+        out.write("\n  ]\n}\n");
+        out.flush();
+    }
+
+    static String quote(String text)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : text.toCharArray())
+        {
+            switch (c)
+            {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
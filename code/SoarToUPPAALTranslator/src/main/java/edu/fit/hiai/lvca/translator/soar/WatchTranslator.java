@@ -0,0 +1,174 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Translate a Soar agent, then translate it again whenever one of its files changes, for as long as the process
+ * runs. Staying in one JVM keeps the lexer and parser DFA caches and the JIT warm, and unchanged productions come
+ * from the translation cache, so a regeneration takes milliseconds rather than a JVM start.
+ *
+ * The directories of every file the agent sources are watched. Editors often write a file in several steps, so
+ * after the first change the translator waits until the files have been quiet for a moment. The model is written to
+ * a temporary file and moved over the output, so UPPAAL never reads half a model.
+ */
+class WatchTranslator
+{
+    private static final long QUIET_MILLIS = 50;
+
+    private final String soarSourceFile;
+    private final Path outputFile;
+    private final TranslationOptions options;
+    private final WatchService watcher;
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+    private final Set<Path> sources = new HashSet<>();
+    private final List<Long> latencies = new ArrayList<>();
+
+    /**
+     * @param options how to translate; its cache is replaced by one kept between regenerations
+     */
+    WatchTranslator(String soarSourceFile, String outputFile, TranslationOptions options) throws IOException
+    {
+        this.soarSourceFile = soarSourceFile;
+        this.outputFile = Paths.get(outputFile).toAbsolutePath();
+        this.options = options;
+        watcher = FileSystems.getDefault().newWatchService();
+
+        options.cache = options.cacheDirectory == null
+                ? TranslationCache.inMemory()
+                : TranslationCache.open(options.cacheDirectory, soarSourceFile);
+    }
+
+    /**
+     * Translate now and after every change, until interrupted
+     */
+    void run() throws IOException, InterruptedException
+    {
+        long first = System.nanoTime();
+        if (translate())
+        {
+            System.out.println(String.format("Wrote %s in %.1f ms", outputFile, (System.nanoTime() - first) / 1e6));
+        }
+        System.out.println("Watching " + watchedDirectories.size() + " directories for changes");
+
+        while (true)
+        {
+            WatchKey key = watcher.take();
+            long changed = System.nanoTime();
+            boolean relevant = isRelevant(key);
+
+            // Collect the rest of the burst of events that a save makes
+            while ((key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null)
+            {
+                relevant |= isRelevant(key);
+            }
+
+            long start = System.nanoTime();
+            if (relevant && translate())
+            {
+                long done = System.nanoTime();
+                latencies.add(done - changed);
+
+                System.out.println(String.format("Wrote %s: %.1f ms after the change, %.1f ms translating (%s)",
+                        outputFile,
+                        (done - changed) / 1e6,
+                        (done - start) / 1e6,
+                        getLatencySummary()));
+            }
+        }
+    }
+
+    /**
+     * @return whether the events of the key touch a Soar file, or a file the agent sources
+     */
+    private boolean isRelevant(WatchKey key)
+    {
+        Path directory = (Path) key.watchable();
+        boolean relevant = false;
+
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW)
+            {
+                relevant = true;
+                continue;
+            }
+
+            Path file = directory.resolve((Path) event.context());
+            relevant |= sources.contains(file) || file.toString().endsWith(".soar");
+        }
+        key.reset();
+        return relevant;
+    }
+
+    /**
+     * @return whether the model was written; if not, the previous model stays
+     */
+    private boolean translate() throws IOException
+    {
+        ParseStatistics statistics = new ParseStatistics();
+        options.statistics = statistics;
+
+        try
+        {
+            SoarTranslator.writeUPPAAL(soarSourceFile, outputFile, options);
+            return true;
+        }
+        catch (Exception | StackOverflowError e)
+        {
+            // A file saved halfway through an edit must not stop the watcher
+            System.err.println("Translation failed: " + e);
+            return false;
+        }
+        finally
+        {
+            options.cache.next();
+            watch(statistics.sources);
+        }
+    }
+
+    /**
+     * Watch the directories of the files the agent loaded, which may change with every edit of a source command
+     */
+    private void watch(Set<Path> files) throws IOException
+    {
+        if (files.isEmpty())
+        {
+            // Nothing was loaded, so wait for the top file to appear
+            files = Collections.singleton(Paths.get(soarSourceFile).toAbsolutePath().normalize());
+        }
+        else
+        {
+            sources.clear();
+        }
+        sources.addAll(files);
+
+        for (Path file : files)
+        {
+            Path directory = file.getParent();
+
+            if (!watchedDirectories.containsKey(directory) && Files.isDirectory(directory))
+            {
+                watchedDirectories.put(directory, directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+            }
+        }
+    }
+
+    /**
+     * @return count, median and worst latency from change to written model over the regenerations so far
+     */
+    private String getLatencySummary()
+    {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+
+        return String.format("%d regenerations, median %.1f ms, max %.1f ms",
+                sorted.size(),
+                sorted.get(sorted.size() / 2) / 1e6,
+                sorted.get(sorted.size() - 1) / 1e6);
+    }
+}
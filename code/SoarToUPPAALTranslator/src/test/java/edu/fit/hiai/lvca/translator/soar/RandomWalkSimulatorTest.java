@@ -0,0 +1,103 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RandomWalkSimulatorTest
+{
+    /**
+     * Counts up by one every two broadcasts until the count reaches 5000
+     */
+    private static final String COUNTER =
+            "sp {count*init\n" +
+            "   (state <s> ^superstate nil -^count)\n" +
+            "-->\n" +
+            "   (<s> ^count 0)\n" +
+            "}\n" +
+            "sp {count*increment\n" +
+            "   (state <s> ^count <c> ^flag true)\n" +
+            "-->\n" +
+            "   (<s> ^count (+ <c> 1) ^flag false)\n" +
+            "}\n" +
+            "sp {count*flag\n" +
+            "   (state <s> ^count <c> ^flag false)\n" +
+            "-->\n" +
+            "   (<s> ^flag true)\n" +
+            "}\n" +
+            "sp {count*halt\n" +
+            "   (state <s> ^count 5000)\n" +
+            "-->\n" +
+            "   (halt)\n" +
+            "}\n";
+
+    /**
+     * Flips a flag forever and never halts
+     */
+    private static final String TOGGLE =
+            "sp {toggle*on\n" +
+            "   (state <s> ^flag false)\n" +
+            "-->\n" +
+            "   (<s> ^flag true)\n" +
+            "}\n" +
+            "sp {toggle*off\n" +
+            "   (state <s> ^flag true)\n" +
+            "-->\n" +
+            "   (<s> ^flag false)\n" +
+            "}\n" +
+            "sp {toggle*halt\n" +
+            "   (state <s> ^count 5)\n" +
+            "-->\n" +
+            "   (halt)\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ReachabilityChecker getNetwork(String soarSource) throws IOException
+    {
+        File file = folder.newFile("agent.soar");
+        Files.write(file.toPath(), soarSource.getBytes(StandardCharsets.UTF_8));
+        return SoarTranslator.getReachabilityChecker(file.getPath(), new TranslationOptions());
+    }
+
+    @Test
+    public void findsStateBeyondWalkLength() throws Exception
+    {
+        RandomWalkSimulator simulator = new RandomWalkSimulator(getNetwork(COUNTER), "state_count == 700", 4, 1_000_000, 100, 1);
+        RandomWalkSimulator.Result result = simulator.run();
+
+        assertNotNull(result.toString(), result.trace);
+        assertNull(result.error);
+        assertEquals(1400, result.trace.size());
+        assertEquals("count*init, count*flag", result.trace.get(0));
+        assertEquals("count*increment", result.trace.get(1399));
+    }
+
+    @Test
+    public void agreesWithChecker() throws Exception
+    {
+        ReachabilityChecker network = getNetwork(COUNTER);
+
+        assertTrue(network.check("E<> state_count == 700", 1).satisfied);
+        assertNotNull(new RandomWalkSimulator(network, "state_count == 700", 1, 10_000, 10, 1).run().trace);
+        assertFalse(network.check("E<> state_count == 6000", 1).satisfied);
+        assertNull(new RandomWalkSimulator(network, "state_count == 6000", 1, 100_000, 10, 1).run().trace);
+    }
+
+    @Test
+    public void stopsWhenRunRepeats() throws Exception
+    {
+        RandomWalkSimulator.Result result = new RandomWalkSimulator(getNetwork(TOGGLE), "state_count == 1", 1, 10_000_000, 1000, 1).run();
+
+        assertNull(result.trace);
+        assertTrue(String.valueOf(result.steps), result.steps < 100);
+    }
+}
@@ -0,0 +1,95 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compare the state space verifyta explores for the one-template-per-production encoding and the single-process
+ * encoding of the same agents. Each model is checked against "A[] true", which visits every reachable state.
+ *
+ * java -cp target/benchmarks.jar edu.fit.hiai.lvca.translator.soar.EncodingComparison [agents...]
+ *
+ * Agents are paths under the Soar examples directory, as for PipelineBenchmark. verifyta is run from the PATH unless
+ * the verifyta system property gives its location.
+ */
+public class EncodingComparison
+{
+    private static final List<String> DEFAULT_AGENTS = Arrays.asList(
+            "counter/counter/combined_increment.soar",
+            "pilot_agent_combined.soar",
+            "xplane_copilot.soar",
+            "counter/counter.soar",
+            "water-jug-rl/water-jug-rl.soar");
+
+    private static final Pattern STATES = Pattern.compile("States (explored|stored)\\s*:\\s*(\\d+)");
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String examples = System.getProperty("soar.examples", "../../Soar Examples");
+        String verifyta = System.getProperty("verifyta", "verifyta");
+        List<String> agents = args.length > 0 ? Arrays.asList(args) : DEFAULT_AGENTS;
+
+        Path directory = Files.createTempDirectory("encoding-comparison");
+        Path query = directory.resolve("all-states.q");
+        Files.write(query, "A[] true\n".getBytes(StandardCharsets.UTF_8));
+
+        System.out.printf("%-45s %-15s %12s %12s %10s%n", "agent", "encoding", "explored", "stored", "time (ms)");
+
+        for (String agent : agents)
+        {
+            for (boolean singleProcess : new boolean[]{false, true})
+            {
+                TranslationOptions options = new TranslationOptions();
+                options.singleProcess = singleProcess;
+
+                Path model = directory.resolve((singleProcess ? "single-" : "templates-") + Paths.get(agent).getFileName() + ".xml");
+                try (OutputStream out = Files.newOutputStream(model))
+                {
+                    SoarTranslator.writeUPPAAL(Paths.get(examples, agent).toString(), out, options);
+                }
+
+                long start = System.nanoTime();
+                String[] states = verify(verifyta, model, query);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+
+                System.out.printf("%-45s %-15s %12s %12s %10d%n", agent, singleProcess ? "single-process" : "templates", states[0], states[1], millis);
+            }
+        }
+    }
+
+    /**
+     * @return the number of states explored and stored, as verifyta reports them, or "?" where it does not
+     */
+    private static String[] verify(String verifyta, Path model, Path query) throws IOException, InterruptedException
+    {
+        Process process = new ProcessBuilder(verifyta, "-u", "-q", model.toString(), query.toString())
+                .redirectErrorStream(true)
+                .start();
+        String[] states = {"?", "?"};
+
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = output.readLine()) != null)
+            {
+                Matcher matcher = STATES.matcher(line);
+                if (matcher.find())
+                {
+                    states[matcher.group(1).equals("explored") ? 0 : 1] = matcher.group(2);
+                }
+            }
+        }
+        process.waitFor();
+        return states;
+    }
+}
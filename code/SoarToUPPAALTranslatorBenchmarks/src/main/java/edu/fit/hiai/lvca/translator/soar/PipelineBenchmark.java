@@ -0,0 +1,178 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+import edu.fit.hiai.lvca.antlr4.SoarLexer;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * One benchmark per translation phase. Each phase starts from the output of the previous one, prepared once per
+ * trial, so the phases can be compared and summed:
+ *
+ * lex: Soar text to tokens
+ * parse: tokens to parse tree and production IR, with the translator's SLL-then-LL strategy
+ * collectSymbols: productions to symbol table and variable paths
+ * translateLabels: productions to guard and assignment labels
+ * serialize: labels to UPPAAL XML
+ * translate: productions to UPPAAL XML, i.e. translateLabels + serialize + declarations
+ *
+ * The agent parameter is either "synthetic-N" for a generated agent of N productions or a path under the Soar
+ * examples directory, which is "../../Soar Examples" unless the soar.examples system property says otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PipelineBenchmark
+{
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    @Param({
+            "xplane_copilot.soar",
+            "pilot_agent_combined.soar",
+            "counter/counter/combined_increment.soar",
+            "synthetic-100",
+            "synthetic-1000",
+            "synthetic-10000",
+            "synthetic-100000"})
+    public String agent;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Production> productions;
+    private Set<String> stringSymbols;
+    private Set<String> booleanSymbols;
+    private Map<String, Map<String, String>> variablePaths;
+    private List<TranslationCache.Fragment> fragments;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException
+    {
+        if (agent.startsWith(SYNTHETIC_PREFIX))
+        {
+            source = SyntheticAgent.generate(Integer.parseInt(agent.substring(SYNTHETIC_PREFIX.length())));
+        }
+        else
+        {
+            String examples = System.getProperty("soar.examples", "../../Soar Examples");
+            source = new String(Files.readAllBytes(Paths.get(examples, agent)), StandardCharsets.UTF_8);
+        }
+
+        tokens = lex();
+        productions = parse();
+
+        SymbolVisitor symbolVisitor = collectSymbols();
+        stringSymbols = symbolVisitor.getStringSymbols()
+                .stream()
+                .map(name -> name.replace("-", "_"))
+                .collect(Collectors.toSet());
+        booleanSymbols = symbolVisitor.getBooleanSymbols();
+        variablePaths = symbolVisitor.getGlobalVariableDictionary();
+
+        fragments = translateLabels();
+    }
+
+    @Benchmark
+    public List<Token> lex()
+    {
+        return new ArrayList<>(new SoarLexer(new ANTLRInputStream(source)).getAllTokens());
+    }
+
+    @Benchmark
+    public List<Production> parse()
+    {
+        return SoarTranslator.parse(new CommonTokenStream(new ListTokenSource(tokens)), null);
+    }
+
+    @Benchmark
+    public SymbolVisitor collectSymbols()
+    {
+        return new SymbolVisitor(productions);
+    }
+
+    @Benchmark
+    public List<TranslationCache.Fragment> translateLabels()
+    {
+        UPPAALSemanticVisitor visitor = new UPPAALSemanticVisitor(new HashSet<>(stringSymbols), variablePaths, booleanSymbols);
+        List<TranslationCache.Fragment> labels = new ArrayList<>(productions.size());
+
+        for (Production production : productions)
+        {
+            labels.add(visitor.getFragment(production));
+        }
+        return labels;
+    }
+
+    /**
+     * Write one template per production, with the same shape as the translator's, from precomputed labels
+     */
+    @Benchmark
+    public void serialize(Blackhole blackhole) throws XMLStreamException
+    {
+        UPPAALStreamWriter writer = new UPPAALStreamWriter(new DiscardingOutputStream(blackhole));
+        writer.writeDeclaration("broadcast chan Run_Rule;\n");
+
+        int id = 0;
+        for (TranslationCache.Fragment fragment : fragments)
+        {
+            String run = Integer.toString(id++);
+            String start = Integer.toString(id++);
+
+            writer.startTemplate("production" + run);
+            writer.writeLocation(run, "Run", false);
+            writer.writeLocation(start, "Start", true);
+            writer.writeInit(start);
+            writer.writeTransition(run, start, null, "Run_Rule?", null);
+            writer.writeTransition(start, run, fragment.guard, "Run_Rule?", fragment.assignment);
+            writer.endTemplate();
+        }
+        writer.writeSystem("system schd;");
+    }
+
+    @Benchmark
+    public void translate(Blackhole blackhole) throws XMLStreamException
+    {
+        new UPPAALSemanticVisitor(new HashSet<>(stringSymbols), variablePaths, booleanSymbols)
+                .visitSoar(productions, new DiscardingOutputStream(blackhole));
+    }
+
+    /**
+     * Hands every write to the blackhole so that serialization cannot be optimised away
+     */
+    private static class DiscardingOutputStream extends OutputStream
+    {
+        private final Blackhole blackhole;
+
+        DiscardingOutputStream(Blackhole blackhole)
+        {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            blackhole.consume(b);
+        }
+    }
+}
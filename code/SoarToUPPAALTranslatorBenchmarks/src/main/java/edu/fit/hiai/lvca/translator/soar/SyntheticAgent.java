@@ -0,0 +1,54 @@
+package edu.fit.hiai.lvca.translator.soar;
+
+/**
+ * Generate Soar agents of any size for benchmarking. Operators come in propose/apply pairs over a fixed pool of
+ * counters and flags, so the symbol table stops growing while the number of productions keeps rising, like a large
+ * hand-written agent. A final production halts so that the agent translates.
+ */
+class SyntheticAgent
+{
+    private static final int COUNTERS = 50;
+    private static final int FLAGS = 20;
+
+    /**
+     * @param productions approximate number of productions; the agent has productions / 2 operators plus the goal
+     * @return the Soar source
+     */
+    static String generate(int productions)
+    {
+        StringBuilder soar = new StringBuilder(productions * 120);
+
+        for (int op = 0; op < productions / 2; op++)
+        {
+            int counter = op % COUNTERS;
+            int flag = op % FLAGS;
+
+            soar.append("sp {synth*propose*op").append(op).append('\n')
+                    .append("   (state <s> ^name synth\n")
+                    .append("              ^count").append(counter).append(" <c>\n")
+                    .append("              ^flag").append(flag).append(" true)\n")
+                    .append("-->\n")
+                    .append("   (<s> ^operator <o> +)\n")
+                    .append("   (<o> ^name op").append(op).append(")\n")
+                    .append("}\n\n");
+
+            soar.append("sp {synth*apply*op").append(op).append('\n')
+                    .append("   (state <s> ^operator <o>\n")
+                    .append("              ^count").append(counter).append(" <c>)\n")
+                    .append("   (<o> ^name op").append(op).append(")\n")
+                    .append("-->\n")
+                    .append("   (<s> ^count").append(counter).append(" (+ <c> 1)\n")
+                    .append("        ^flag").append(flag).append(" false)\n")
+                    .append("}\n\n");
+        }
+
+        soar.append("sp {synth*detect*goal\n")
+                .append("   (state <s> ^name synth\n")
+                .append("              ^count0 7)\n")
+                .append("-->\n")
+                .append("   (halt)\n")
+                .append("}\n");
+
+        return soar.toString();
+    }
+}